@@ -24,7 +24,9 @@ import com.google.common.collect.Maps;
 import java.util.Collections;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.subject.CalculatedSubject;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.NodeTree;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.PermissibleBase;
@@ -163,14 +165,17 @@ public class PEXPermissible extends PermissibleBase {
     @Override
     public boolean isPermissionSet(String name) {
         Preconditions.checkNotNull(name, "name");
-        name = name.toLowerCase();
         return getPermissionValue(getActiveContexts(), name) != 0;
     }
 
     private int getPermissionValue(Set<Map.Entry<String, String>> contexts, String permission) {
-        int ret = getPermissionValue0(subj.getPermissions(contexts), permission);
+        int ret = subj.getPermission(contexts, permission); // Memoized, so repeated checks skip the node tree
+        if (ret == 0) {
+            ret = getParentPermissionValue(subj.getPermissions(contexts), permission);
+        }
 
         if (ret == 0) {
+            permission = permission.toLowerCase(); // Node trees are case-insensitive, so only lowercase on a miss
             for (Metapermission mPerm : METAPERMISSIONS) {
                 Matcher match = mPerm.matchAgainst.matcher(permission);
                 if (match.matches() && mPerm.isMatch(match, subj, contexts)) {
@@ -190,9 +195,12 @@ public class PEXPermissible extends PermissibleBase {
         if (val != 0) {
             return val;
         }
+        return getParentPermissionValue(nodeTree, name);
+    }
 
+    private int getParentPermissionValue(NodeTree nodeTree, String name) {
         for (Map.Entry<String, Boolean> ent : plugin.getPermissionList().getParents(name)) {
-            val = getPermissionValue0(nodeTree, ent.getKey());
+            int val = getPermissionValue0(nodeTree, ent.getKey());
             if (!ent.getValue()) {
                 val = -val;
             }
@@ -213,7 +221,6 @@ public class PEXPermissible extends PermissibleBase {
     @Override
     public boolean hasPermission(String inName) {
         Preconditions.checkNotNull(inName, "inName");
-        inName = inName.toLowerCase();
         return getPermissionValue(getActiveContexts(), inName) > 0;
     }
 
@@ -295,13 +302,24 @@ public class PEXPermissible extends PermissibleBase {
     }
 
     public Set<Map.Entry<String, String>> getActiveContexts() {
+        return getActiveContexts(plugin, player.getWorld());
+    }
+
+    /**
+     * Get the contexts a player in a certain world is checked in.
+     *
+     * @param plugin The plugin providing server tags
+     * @param world The world the player is in
+     * @return The active contexts
+     */
+    static Set<Map.Entry<String, String>> getActiveContexts(PermissionsExPlugin plugin, World world) {
         ImmutableSet.Builder<Map.Entry<String, String>> builder = ImmutableSet.builder();
-        builder.add(Maps.immutableEntry("world", player.getWorld().getName()));
-        builder.add(Maps.immutableEntry("dimension", player.getWorld().getEnvironment().name().toLowerCase()));
+        builder.add(Maps.immutableEntry("world", world.getName()));
+        builder.add(Maps.immutableEntry("dimension", world.getEnvironment().name().toLowerCase()));
         for (String serverTag : plugin.getManager().getConfig().getServerTags()) {
             builder.add(Maps.immutableEntry(PermissionsExPlugin.SERVER_TAG_CONTEXT, serverTag));
         }
-        return builder.build();
+        return ContextSet.of(builder.build());
     }
 
     public void setPreviousPermissible(Permissible previousPermissible) {
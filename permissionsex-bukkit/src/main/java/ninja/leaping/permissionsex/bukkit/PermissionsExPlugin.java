@@ -31,6 +31,7 @@ import ninja.leaping.permissionsex.config.FilePermissionsExConfiguration;
 import ninja.leaping.permissionsex.logging.TranslatableLogger;
 import ninja.leaping.permissionsex.subject.SubjectType;
 import ninja.leaping.permissionsex.util.command.CommandSpec;
+import org.bukkit.World;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -54,10 +55,16 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -77,6 +84,7 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
     };
     public static final String SERVER_TAG_CONTEXT = "server-tag";
     private static final Pattern JDBC_URL_REGEX = Pattern.compile("(?:jdbc:)?([^:]+):(//)?(?:([^:]+)(?::([^@]+))?@)?(.*)");
+    private static final long PRELOGIN_BAKE_TIMEOUT_SECONDS = 5;
 
     static final Map<String, BiFunction<PermissionsExPlugin, String, String>> PATH_CANONICALIZERS;
     static final Map<String, Properties> PROTOCOL_SPECIFIC_PROPS;
@@ -187,12 +195,36 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
         uninjectAllPermissibles();
     }
 
+    /**
+     * Load and bake the data of a joining user while still off the main thread, so permission checks once they
+     * have joined do not have to wait for data to be loaded. Players rejoin in whichever world they left from, which
+     * is not known before login, so data is baked for the contexts of every loaded world. This also loads any parents
+     * the user only inherits in a specific world or dimension.
+     *
+     * Login is only held up for a limited time. If loading takes longer, it continues in the background instead.
+     *
+     * @param event The pre-login event
+     */
     @EventHandler
     public void onPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
-        getUserSubjects().get(event.getUniqueId().toString()).exceptionally(e -> {
-            logger.warn(t("Error while loading data for user %s/%s during prelogin: %s", event.getName(), event.getUniqueId().toString(), e.getMessage()), e);
-            return null;
-        });
+        final List<Set<Map.Entry<String, String>>> expectedContexts = new ArrayList<>();
+        for (World world : getServer().getWorlds()) {
+            expectedContexts.add(PEXPermissible.getActiveContexts(this, world));
+        }
+        try {
+            getUserSubjects().get(event.getUniqueId().toString())
+                    .thenCompose(subject -> CompletableFuture.allOf(expectedContexts.stream()
+                            .map(subject::prebake)
+                            .toArray(CompletableFuture[]::new)))
+                    .get(PRELOGIN_BAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            logger.warn(t("Data for user %s/%s took longer than %s seconds to load during prelogin, continuing to load in the background",
+                    event.getName(), event.getUniqueId().toString(), PRELOGIN_BAKE_TIMEOUT_SECONDS));
+        } catch (ExecutionException e) {
+            logger.warn(t("Error while loading data for user %s/%s during prelogin: %s", event.getName(), event.getUniqueId().toString(), e.getCause().getMessage()), e.getCause());
+        }
     }
 
     @EventHandler
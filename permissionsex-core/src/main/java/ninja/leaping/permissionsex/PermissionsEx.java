@@ -16,16 +16,20 @@
  */
 package ninja.leaping.permissionsex;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.squirrelid.resolver.HttpRepositoryService;
 import com.sk89q.squirrelid.resolver.ProfileService;
 import ninja.leaping.permissionsex.backend.DataStore;
 import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
 import ninja.leaping.permissionsex.command.PermissionsExCommands;
 import ninja.leaping.permissionsex.command.RankingCommands;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
 import ninja.leaping.permissionsex.data.CacheListenerHolder;
+import ninja.leaping.permissionsex.data.CacheWarmer;
 import ninja.leaping.permissionsex.data.Caching;
 import ninja.leaping.permissionsex.exception.PEBKACException;
 import ninja.leaping.permissionsex.logging.DebugPermissionCheckNotifier;
@@ -38,6 +42,8 @@ import ninja.leaping.permissionsex.data.SubjectCache;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.subject.SubjectType;
 import ninja.leaping.permissionsex.subject.SubjectTypeDefinition;
+import ninja.leaping.permissionsex.util.CacheStatistics;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.Util;
 import ninja.leaping.permissionsex.util.command.CommandSpec;
 
@@ -50,14 +56,20 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -68,6 +80,7 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     public static final String SUBJECTS_GROUP = "group";
     public static final String SUBJECTS_DEFAULTS = "default";
     public static final ImmutableSet<Map.Entry<String, String>> GLOBAL_CONTEXT = ImmutableSet.of();
+    private static final int MAX_EXPANDED_CONTEXTS = 512;
 
     private final TranslatableLogger logger;
     private final ImplementationInterface impl;
@@ -80,6 +93,14 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     private RankLadderCache rankLadderCache;
     private volatile CompletableFuture<ContextInheritance> cachedInheritance;
     private final CacheListenerHolder<Boolean, ContextInheritance> cachedInheritanceListeners = new CacheListenerHolder<>();
+    /**
+     * Context sets expanded with their inherited contexts, replaced whenever the context inheritance changes
+     */
+    private volatile ConcurrentMap<ContextSet, ContextSet> expandedContexts = new ConcurrentHashMap<>();
+    /**
+     * Threads dedicated to baking, or null to bake on the implementation's async executor
+     */
+    private volatile ThreadPoolExecutor bakeExecutor;
 
     private static class State {
         private final PermissionsExConfiguration config;
@@ -193,7 +214,8 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
 
     public SubjectType getSubjects(String type) {
         return subjectTypeCache.computeIfAbsent(type,
-                key -> new SubjectType(this, type, new SubjectCache(type, getState().activeDataStore), new SubjectCache(type, transientData)));
+                key -> new SubjectType(this, type, new SubjectCache(type, getState().activeDataStore, getState().config.getCaches()),
+                        new SubjectCache(type, transientData, getState().config.getCaches())));
     }
 
     public Collection<SubjectType> getActiveSubjectTypes() {
@@ -209,6 +231,21 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         return this.rankLadderCache;
     }
 
+    /**
+     * Get statistics for the caches of every active subject type. Statistics for rank ladders are available
+     * from {@link RankLadderCache#getCacheStatistics()}.
+     *
+     * @return Snapshots of the statistics, by subject type and then by layer
+     * @see SubjectType#getCacheStatistics()
+     */
+    public Map<String, Map<String, CacheStatistics>> getCacheStatistics() {
+        ImmutableMap.Builder<String, Map<String, CacheStatistics>> ret = ImmutableMap.builder();
+        for (Map.Entry<String, SubjectType> type : this.subjectTypeCache.entrySet()) {
+            ret.put(type.getKey(), type.getValue().getCacheStatistics());
+        }
+        return ret.build();
+    }
+
     /**
      * Imports data into the currently active backend from the backend identified by the provided identifier
      *
@@ -276,12 +313,37 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
             PermissionsExConfiguration config = getState().config.reload();
             config.validate();
             initialize(config);
-            getSubjects(SUBJECTS_GROUP).cacheAll();
         } catch (IOException e) {
             throw new PEBKACException(t("Error while loading configuration: %s", e.getLocalizedMessage()));
         }
     }
 
+    private void warmCaches(CacheConfiguration caches) {
+        List<SubjectCache> toWarm = new ArrayList<>();
+        for (String type : caches.getWarmUpTypes()) {
+            SubjectType subjects = getSubjects(type);
+            toWarm.add(subjects.persistentData());
+            toWarm.add(subjects.transientData());
+        }
+        new CacheWarmer(caches.getWarmUpBatchSize(), caches.getWarmUpParallelism(), getLogger()).warm(toWarm);
+    }
+
+    private void updateBakeExecutor(int parallelism) {
+        final ThreadPoolExecutor existing = this.bakeExecutor;
+        if (existing == null ? parallelism == 0 : existing.getMaximumPoolSize() == parallelism) {
+            return;
+        }
+        if (parallelism == 0) {
+            this.bakeExecutor = null;
+        } else {
+            // Idle threads exit, so a replaced executor stops without rejecting bakes that are still running on it
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("PermissionsEx baker #%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+            this.bakeExecutor = executor;
+        }
+    }
+
     private void initialize(PermissionsExConfiguration config) throws PermissionsLoadingException {
         State newState = new State(config, config.getDefaultDataStore());
         newState.activeDataStore.initialize(this);
@@ -298,11 +360,17 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
             } catch (Exception e) {} // TODO maybe warn?
         }
 
-        this.rankLadderCache = new RankLadderCache(this.rankLadderCache, newState.activeDataStore);
-        this.subjectTypeCache.forEach((key, val) -> val.update(newState.activeDataStore));
-        getSubjects(SUBJECTS_GROUP).cacheAll();
+        updateBakeExecutor(newState.config.getBakeParallelism());
+        this.rankLadderCache = new RankLadderCache(this.rankLadderCache, newState.activeDataStore, newState.config.getCaches());
+        this.subjectTypeCache.forEach((key, val) -> {
+            // Bounds are applied first, so the cache rebuilt for the new data store uses them
+            val.updateCaches(newState.config.getCaches());
+            val.update(newState.activeDataStore);
+        });
+        warmCaches(newState.config.getCaches());
         if (this.cachedInheritance != null) {
             this.cachedInheritance = null;
+            this.expandedContexts = new ConcurrentHashMap<>();
             getContextInheritance(null).thenAccept(inheritance -> this.cachedInheritanceListeners.call(true, inheritance));
         }
 
@@ -322,6 +390,10 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     public void close() {
         State state = this.state.getAndSet(null);
         state.activeDataStore.close();
+        final ThreadPoolExecutor bakeExecutor = this.bakeExecutor;
+        if (bakeExecutor != null) {
+            bakeExecutor.shutdown();
+        }
     }
 
     @Override
@@ -349,6 +421,16 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         return impl.getAsyncExecutor();
     }
 
+    /**
+     * Get the executor inherited subject data is loaded on while baking.
+     *
+     * @return The bake executor
+     */
+    public Executor getBakeExecutor() {
+        final Executor ret = this.bakeExecutor;
+        return ret == null ? getAsyncExecutor() : ret;
+    }
+
     @Override
     public void registerCommand(CommandSpec command) {
         impl.registerCommand(command);
@@ -379,6 +461,41 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
 
     }
 
+    /**
+     * Get a context set containing the given contexts and every context they inherit from, directly or indirectly.
+     * Expanded context sets are cached until the context inheritance changes.
+     *
+     * @param contexts The contexts to expand
+     * @return A future providing the expanded contexts
+     */
+    public CompletableFuture<ContextSet> getExpandedContexts(Set<Map.Entry<String, String>> contexts) {
+        // The map must be read before the inheritance, so expansions of outdated inheritance only end up in a discarded map
+        final ConcurrentMap<ContextSet, ContextSet> expanded = this.expandedContexts;
+        final ContextSet key = ContextSet.of(contexts);
+        final ContextSet cached = expanded.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return getContextInheritance(null).thenApply(inheritance -> {
+            final Queue<Map.Entry<String, String>> inProgressContexts = new LinkedList<>(key);
+            final Set<Map.Entry<String, String>> ret = new HashSet<>();
+            Map.Entry<String, String> context;
+            while ((context = inProgressContexts.poll()) != null) {
+                if (ret.add(context)) {
+                    inProgressContexts.addAll(inheritance.getParents(context));
+                }
+            }
+
+            final ContextSet result = ContextSet.of(ret);
+            if (expanded.size() >= MAX_EXPANDED_CONTEXTS) {
+                expanded.clear();
+            }
+            expanded.put(key, result);
+            return result;
+        });
+    }
+
     public CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance newInheritance) {
         return getState().activeDataStore.setContextInheritance(newInheritance);
     }
@@ -386,6 +503,7 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     @Override
     public void clearCache(ContextInheritance newData) {
         this.cachedInheritance = CompletableFuture.completedFuture(newData);
+        this.expandedContexts = new ConcurrentHashMap<>();
         this.cachedInheritanceListeners.call(true, newData);
     }
 }
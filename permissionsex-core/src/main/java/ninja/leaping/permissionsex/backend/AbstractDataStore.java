@@ -16,6 +16,7 @@
  */
 package ninja.leaping.permissionsex.backend;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
@@ -33,6 +34,8 @@ import ninja.leaping.permissionsex.rank.RankLadder;
 import ninja.leaping.permissionsex.util.ThrowingSupplier;
 import ninja.leaping.permissionsex.util.Util;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -83,6 +86,23 @@ public abstract class AbstractDataStore implements DataStore {
         return ret;
     }
 
+    @Override
+    public final CompletableFuture<Map<String, ImmutableSubjectData>> getAllData(String type, Collection<String> identifiers, Function<String, Caching<ImmutableSubjectData>> listeners) {
+        Objects.requireNonNull(type, "type");
+        Objects.requireNonNull(identifiers, "identifiers");
+        Objects.requireNonNull(listeners, "listeners");
+
+        return getAllDataInternal(type, identifiers).thenApply(ret -> {
+            for (String identifier : ret.keySet()) {
+                final Caching<ImmutableSubjectData> listener = listeners.apply(identifier);
+                if (listener != null) {
+                    this.listeners.addListener(Maps.immutableEntry(type, identifier), listener);
+                }
+            }
+            return ret;
+        });
+    }
+
     @Override
     public final CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, ImmutableSubjectData data) {
         Objects.requireNonNull(type, "type");
@@ -124,6 +144,25 @@ public abstract class AbstractDataStore implements DataStore {
 
     protected abstract CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data);
 
+    /**
+     * Load the data of several subjects. By default, each subject is loaded individually with {@link #getDataInternal(String, String)}.
+     *
+     * @param type The type of the subjects
+     * @param identifiers The identifiers of the subjects
+     * @return The data of each subject, by identifier
+     */
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getAllDataInternal(String type, Collection<String> identifiers) {
+        final Map<String, CompletableFuture<ImmutableSubjectData>> futures = new HashMap<>();
+        for (String identifier : identifiers) {
+            futures.computeIfAbsent(identifier, id -> getDataInternal(type, id));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).thenApply(ignore -> {
+            ImmutableMap.Builder<String, ImmutableSubjectData> ret = ImmutableMap.builder();
+            futures.forEach((identifier, data) -> ret.put(identifier, data.join()));
+            return ret.build();
+        });
+    }
+
     @Override
     public final Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(final String type) {
         Objects.requireNonNull(type, "type");
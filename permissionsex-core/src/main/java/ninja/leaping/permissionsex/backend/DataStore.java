@@ -27,6 +27,7 @@ import ninja.leaping.permissionsex.rank.RankLadder;
 import ninja.leaping.permissionsex.util.Util;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -59,6 +60,17 @@ public interface DataStore {
      */
     CompletableFuture<ImmutableSubjectData> getData(String type, String identifier, @Nullable Caching<ImmutableSubjectData> listener);
 
+    /**
+     * Loads the data of several subjects of one type at once. Backends fetch the data in as few operations as they
+     * can, rather than one subject at a time. Implementations of this method do not need to perform any caching.
+     *
+     * @param type The type of the subjects to get
+     * @param identifiers The identifiers of the subjects
+     * @param listeners A function providing the update listener for each subject, or null for none
+     * @return The relevant subject data, by identifier
+     */
+    CompletableFuture<Map<String, ImmutableSubjectData>> getAllData(String type, Collection<String> identifiers, Function<String, Caching<ImmutableSubjectData>> listeners);
+
     /**
      * Sets the data at the specified type and identifier.
      *
@@ -24,6 +24,7 @@ import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.permissionsex.backend.memory.MemorySubjectData;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.util.ContextSet;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,8 +44,8 @@ public final class FileSubjectData extends MemorySubjectData {
                 if (!child.hasMapChildren()) {
                     throw new PermissionsLoadingException(t("Each context section must be of map type! Check that no duplicate nesting has occurred."));
                 }
-                Set<Entry<String, String>> contexts = contextsFrom(child);
-                DataEntry value = MAPPER.bindToNew().populate(child);
+                Set<Entry<String, String>> contexts = ContextSet.of(contextsFrom(child));
+                DataEntry value = MAPPER.bindToNew().populate(child).interned();
                 map.put(contexts, value);
             }
         }
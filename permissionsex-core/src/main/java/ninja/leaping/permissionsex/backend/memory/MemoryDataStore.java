@@ -49,7 +49,11 @@ public class MemoryDataStore extends AbstractDataStore {
     private volatile ContextInheritance inheritance = new MemoryContextInheritance();
 
     public MemoryDataStore() {
-        super(FACTORY);
+        this(FACTORY);
+    }
+
+    protected MemoryDataStore(Factory factory) {
+        super(factory);
     }
 
     @Override
@@ -18,7 +18,6 @@ package ninja.leaping.permissionsex.backend.memory;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import ninja.leaping.configurate.objectmapping.ObjectMapper;
@@ -26,6 +25,8 @@ import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.configurate.objectmapping.Setting;
 import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.util.ContextSet;
+import ninja.leaping.permissionsex.util.PermissionDictionary;
 import ninja.leaping.permissionsex.util.Util;
 
 import javax.annotation.Nullable;
@@ -90,7 +91,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
         }
 
         public DataEntry withPermission(String permission, int value) {
-            return new DataEntry(updateImmutable(permissions, permission, value), options, parents, defaultValue);
+            return new DataEntry(updateImmutable(permissions, PermissionDictionary.intern(permission), value), options, parents, defaultValue);
 
         }
 
@@ -105,7 +106,17 @@ public class MemorySubjectData implements ImmutableSubjectData {
         }
 
         public DataEntry withPermissions(Map<String, Integer> values) {
-            return new DataEntry(ImmutableMap.copyOf(values), options, parents, defaultValue);
+            return new DataEntry(PermissionDictionary.internKeys(values), options, parents, defaultValue);
+        }
+
+        /**
+         * Get a copy of this entry with permission names replaced by their canonical instances, for entries
+         * that have been populated by the object mapper.
+         *
+         * @return The interned entry
+         */
+        public DataEntry interned() {
+            return permissions == null ? this : new DataEntry(PermissionDictionary.internKeys(permissions), options, parents, defaultValue);
         }
 
         public DataEntry withoutPermissions() {
@@ -165,7 +176,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
         if (val.isEmpty()) {
             val = null;
         }
-        return newData(updateImmutable(contexts, immutSet(key), val));
+        return newData(updateImmutable(contexts, ContextSet.of(key), val));
     }
 
     protected MemorySubjectData newData(Map<Set<Entry<String, String>>, DataEntry> contexts) {
@@ -190,10 +201,6 @@ public class MemorySubjectData implements ImmutableSubjectData {
         return res;
     }
 
-    private <E> ImmutableSet<E> immutSet(Set<E> set) {
-        return ImmutableSet.copyOf(set);
-    }
-
     @Override
     public Map<Set<Entry<String, String>>, Map<String, String>> getAllOptions() {
         return Maps.filterValues(Maps.transformValues(contexts,
@@ -19,6 +19,7 @@ package ninja.leaping.permissionsex.backend.sql;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.util.PermissionDictionary;
 import ninja.leaping.permissionsex.util.ThrowingBiConsumer;
 
 import java.sql.SQLException;
@@ -130,7 +131,7 @@ class Segment {
     }
 
     public Segment withPermission(String permission, int value) {
-        return newWithUpdate(updateImmutable(permissions, permission, value), options, parents, permissionDefault, (dao, seg) -> dao.setPermission(seg, permission, value));
+        return newWithUpdate(updateImmutable(permissions, PermissionDictionary.intern(permission), value), options, parents, permissionDefault, (dao, seg) -> dao.setPermission(seg, permission, value));
 
     }
 
@@ -145,7 +146,7 @@ class Segment {
     }
 
     public Segment withPermissions(Map<String, Integer> values) {
-        Map<String, Integer> immValues = values == null ? null : ImmutableMap.copyOf(values);
+        Map<String, Integer> immValues = values == null ? null : PermissionDictionary.internKeys(values);
         return newWithUpdate(immValues, options, parents, permissionDefault, (dao, seg) -> dao.setPermissions(seg, immValues));
     }
 
@@ -19,11 +19,14 @@ package ninja.leaping.permissionsex.backend.sql;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.backend.sql.dao.LegacyDao;
 import ninja.leaping.permissionsex.backend.sql.dao.LegacyMigration;
 import ninja.leaping.permissionsex.rank.RankLadder;
+import ninja.leaping.permissionsex.util.PermissionDictionary;
+import ninja.leaping.permissionsex.util.ThrowingConsumer;
 import ninja.leaping.permissionsex.util.ThrowingSupplier;
 
 import java.io.BufferedReader;
@@ -38,6 +41,11 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -48,6 +56,10 @@ import java.util.Set;
  * Abstraction to communicate with the SQL database. Instances are not thread-safe -- it's best to create a new one for each operation on a single thread
  */
 public abstract class SqlDao implements AutoCloseable {
+    /**
+     * The greatest number of values placed in a single {@code IN} list
+     */
+    private static final int MAX_BATCH_SIZE = 256;
     private final Connection conn;
     private final SqlDataStore ds;
     int holdOpen, transactionLevel;
@@ -109,6 +121,30 @@ public abstract class SqlDao implements AutoCloseable {
         return "SELECT * FROM {}inheritance LEFT JOIN ({}subjects) on ({}inheritance.parent={}subjects.id) WHERE segment=?";
     }
 
+    protected String getSelectSubjectRefsTypeNamesQuery() {
+        return "SELECT id, identifier FROM {}subjects WHERE type=? AND identifier IN (%s)";
+    }
+
+    protected String getSelectSegmentsSubjectsQuery() {
+        return "SELECT id, subject, perm_default FROM {}segments WHERE subject IN (%s)";
+    }
+
+    protected String getSelectContextsSegmentsQuery() {
+        return "SELECT segment, `key`, `value` FROM {}contexts WHERE segment IN (%s)";
+    }
+
+    protected String getSelectPermissionsSegmentsQuery() {
+        return "SELECT segment, `key`, `value` FROM {}permissions WHERE segment IN (%s)";
+    }
+
+    protected String getSelectOptionsSegmentsQuery() {
+        return "SELECT segment, `key`, `value` FROM {}options WHERE segment IN (%s)";
+    }
+
+    protected String getSelectInheritanceSegmentsQuery() {
+        return "SELECT {}inheritance.segment, {}subjects.id, {}subjects.type, {}subjects.identifier FROM {}inheritance LEFT JOIN ({}subjects) on ({}inheritance.parent={}subjects.id) WHERE segment IN (%s)";
+    }
+
     protected String getInsertSegmentQuery() {
         return "INSERT INTO {}segments (subject, perm_default) VALUES (?, ?)";
     }
@@ -377,7 +413,7 @@ public abstract class SqlDao implements AutoCloseable {
 
                     ResultSet segmentRs = permStmt.executeQuery();
                     while (segmentRs.next()) {
-                        permValues.put(segmentRs.getString(1), segmentRs.getInt(2));
+                        permValues.put(PermissionDictionary.intern(segmentRs.getString(1)), segmentRs.getInt(2));
                     }
                 }
 
@@ -406,6 +442,122 @@ public abstract class SqlDao implements AutoCloseable {
         return result.build();
     }
 
+    /**
+     * Prepare a statement with an {@code IN} list. The list is padded to a power of two with copies of its last value,
+     * so only a few distinct statements are ever prepared.
+     *
+     * @param query The query, with {@code %s} in place of the list
+     * @param values The values to place in the list
+     * @param firstIndex The parameter index of the first list value
+     * @return The prepared statement, with the list values set
+     * @throws SQLException if unable to prepare the statement
+     */
+    private PreparedStatement prepareBatchStatement(String query, List<?> values, int firstIndex) throws SQLException {
+        final int size = Math.max(1, Integer.highestOneBit(values.size() - 1) << 1);
+        final PreparedStatement stmt = prepareStatement(String.format(query, String.join(", ", Collections.nCopies(size, "?"))));
+        for (int i = 0; i < size; ++i) {
+            stmt.setObject(firstIndex + i, values.get(Math.min(i, values.size() - 1)));
+        }
+        return stmt;
+    }
+
+    private void selectBatched(String query, Collection<Integer> ids, ThrowingConsumer<ResultSet, SQLException> rowHandler) throws SQLException {
+        for (List<Integer> batch : Iterables.partition(ids, MAX_BATCH_SIZE)) {
+            try (PreparedStatement stmt = prepareBatchStatement(query, batch, 1)) {
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    rowHandler.accept(rs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get references to any of several subjects of one type that are registered.
+     *
+     * @param type The type of the subjects
+     * @param names The identifiers of the subjects
+     * @return References to the registered subjects, by identifier as given
+     * @throws SQLException if unable to query the database
+     */
+    public Map<String, SubjectRef> getSubjectRefs(String type, Collection<String> names) throws SQLException {
+        final Map<String, SubjectRef> ret = new HashMap<>();
+        for (List<String> batch : Iterables.partition(names, MAX_BATCH_SIZE)) {
+            try (PreparedStatement stmt = prepareBatchStatement(getSelectSubjectRefsTypeNamesQuery(), batch, 2)) {
+                stmt.setString(1, type);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    String name = rs.getString(2);
+                    if (!batch.contains(name)) { // The database compared identifiers case-insensitively
+                        for (String requested : batch) {
+                            if (requested.equalsIgnoreCase(name)) {
+                                name = requested;
+                                break;
+                            }
+                        }
+                    }
+                    ret.put(name, new SubjectRef(rs.getInt(1), type, name));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the segments of several subjects, using one query per table for every {@value #MAX_BATCH_SIZE} subjects
+     * or segments.
+     *
+     * @param refs The subjects, which must already be allocated
+     * @return The segments of each subject, by subject id. Subjects without segments are not included.
+     * @throws SQLException if unable to query the database
+     */
+    public Map<Integer, List<Segment>> getSegments(Collection<SubjectRef> refs) throws SQLException {
+        final List<Integer> subjectIds = new ArrayList<>(refs.size());
+        for (SubjectRef ref : refs) {
+            subjectIds.add(ref.getId());
+        }
+
+        final Map<Integer, Integer> segmentSubjects = new LinkedHashMap<>();
+        final Map<Integer, Integer> permDefaults = new HashMap<>();
+        selectBatched(getSelectSegmentsSubjectsQuery(), subjectIds, rs -> {
+            final int id = rs.getInt(1);
+            segmentSubjects.put(id, rs.getInt(2));
+            Number permDef = (Number) rs.getObject(3);
+            if (permDef != null) {
+                permDefaults.put(id, permDef.intValue());
+            }
+        });
+        if (segmentSubjects.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        final Map<Integer, ImmutableSet.Builder<Entry<String, String>>> contexts = new HashMap<>();
+        final Map<Integer, ImmutableMap.Builder<String, Integer>> permissions = new HashMap<>();
+        final Map<Integer, ImmutableMap.Builder<String, String>> options = new HashMap<>();
+        final Map<Integer, ImmutableList.Builder<SubjectRef>> parents = new HashMap<>();
+        final Set<Integer> segmentIds = segmentSubjects.keySet();
+        selectBatched(getSelectContextsSegmentsQuery(), segmentIds, rs ->
+                contexts.computeIfAbsent(rs.getInt(1), id -> ImmutableSet.builder()).add(Maps.immutableEntry(rs.getString(2), rs.getString(3))));
+        selectBatched(getSelectPermissionsSegmentsQuery(), segmentIds, rs ->
+                permissions.computeIfAbsent(rs.getInt(1), id -> ImmutableMap.builder()).put(PermissionDictionary.intern(rs.getString(2)), rs.getInt(3)));
+        selectBatched(getSelectOptionsSegmentsQuery(), segmentIds, rs ->
+                options.computeIfAbsent(rs.getInt(1), id -> ImmutableMap.builder()).put(rs.getString(2), rs.getString(3)));
+        selectBatched(getSelectInheritanceSegmentsQuery(), segmentIds, rs ->
+                parents.computeIfAbsent(rs.getInt(1), id -> ImmutableList.builder()).add(new SubjectRef(rs.getInt(2), rs.getString(3), rs.getString(4))));
+
+        final Map<Integer, List<Segment>> ret = new HashMap<>();
+        for (Map.Entry<Integer, Integer> segment : segmentSubjects.entrySet()) {
+            final int id = segment.getKey();
+            ret.computeIfAbsent(segment.getValue(), subject -> new ArrayList<>()).add(new Segment(id,
+                    contexts.containsKey(id) ? contexts.get(id).build() : ImmutableSet.of(),
+                    permissions.containsKey(id) ? permissions.get(id).build() : ImmutableMap.of(),
+                    options.containsKey(id) ? options.get(id).build() : ImmutableMap.of(),
+                    parents.containsKey(id) ? parents.get(id).build() : ImmutableList.of(),
+                    permDefaults.get(id), null));
+        }
+        return ret;
+    }
+
     public Segment addSegment(SubjectRef ref) throws SQLException { // TODO: Is this method useful?
         Segment segment = Segment.unallocated();
         allocateSegment(ref, segment);
@@ -16,6 +16,7 @@
  */
 package ninja.leaping.permissionsex.backend.sql;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -30,12 +31,14 @@ import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.rank.RankLadder;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.ThrowingFunction;
 import ninja.leaping.permissionsex.util.Util;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -194,11 +197,36 @@ public final class SqlDataStore extends AbstractDataStore {
         });
     }
 
+    @Override
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getAllDataInternal(String type, Collection<String> identifiers) {
+        return runAsync(() -> {
+            try (SqlDao dao = getDao()) {
+                final Map<String, SubjectRef> refs = dao.getSubjectRefs(type, identifiers);
+                final Map<Integer, List<Segment>> segments = dao.getSegments(refs.values());
+                final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+                for (String identifier : identifiers) {
+                    final SubjectRef ref = refs.get(identifier);
+                    if (ref == null) {
+                        ret.put(identifier, new SqlSubjectData(SubjectRef.unresolved(type, identifier)));
+                    } else {
+                        ret.put(identifier, getDataForSegments(ref, segments.getOrDefault(ref.getId(), ImmutableList.of())));
+                    }
+                }
+                return ret;
+            } catch (SQLException e) {
+                throw new PermissionsLoadingException(t("Error loading permissions for %s %s subjects", identifiers.size(), type), e);
+            }
+        });
+    }
+
     private SqlSubjectData getDataForRef(SqlDao dao, SubjectRef ref) throws SQLException {
-        List<Segment> segments = dao.getSegments(ref);
+        return getDataForSegments(ref, dao.getSegments(ref));
+    }
+
+    private SqlSubjectData getDataForSegments(SubjectRef ref, List<Segment> segments) {
         Map<Set<Entry<String, String>>, Segment> contexts = new HashMap<>();
         for (Segment segment : segments) {
-            contexts.put(segment.getContexts(), segment);
+            contexts.put(ContextSet.of(segment.getContexts()), segment);
         }
 
         return new SqlSubjectData(ref, contexts, null);
@@ -262,8 +290,10 @@ public final class SqlDataStore extends AbstractDataStore {
     public Iterable<Entry<Entry<String, String>, ImmutableSubjectData>> getAll() {
         try (SqlDao dao = getDao()) {
             ImmutableSet.Builder<Entry<Entry<String, String>, ImmutableSubjectData>> builder = ImmutableSet.builder();
-            for (SubjectRef ref : dao.getAllSubjectRefs()) {
-                builder.add(Maps.immutableEntry(ref, getDataForRef(dao, ref)));
+            final List<SubjectRef> refs = ImmutableList.copyOf(dao.getAllSubjectRefs());
+            final Map<Integer, List<Segment>> segments = dao.getSegments(refs);
+            for (SubjectRef ref : refs) {
+                builder.add(Maps.immutableEntry(ref, getDataForSegments(ref, segments.getOrDefault(ref.getId(), ImmutableList.of()))));
             }
             return builder.build();
         } catch (SQLException e) {
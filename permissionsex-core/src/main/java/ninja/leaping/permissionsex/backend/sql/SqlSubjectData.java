@@ -18,10 +18,10 @@ package ninja.leaping.permissionsex.backend.sql;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.ThrowingBiConsumer;
 import ninja.leaping.permissionsex.util.Util;
 
@@ -81,7 +81,7 @@ class SqlSubjectData implements ImmutableSubjectData {
                 val.doUpdates(dao);
             };
         }
-        return newWithUpdate(Util.updateImmutable(segments, immutSet(key), val), updateFunc);
+        return newWithUpdate(Util.updateImmutable(segments, ContextSet.of(key), val), updateFunc);
     }
 
     private Segment getSegmentOrNew(Set<Entry<String, String>> segments) {
@@ -92,10 +92,6 @@ class SqlSubjectData implements ImmutableSubjectData {
         return res;
     }
 
-    private <E> ImmutableSet<E> immutSet(Set<E> set) {
-        return ImmutableSet.copyOf(set);
-    }
-
     @Override
     public Map<Set<Entry<String, String>>, Map<String, String>> getAllOptions() {
         return Maps.filterValues(Maps.transformValues(segments,
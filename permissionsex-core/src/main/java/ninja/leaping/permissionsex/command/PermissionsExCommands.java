@@ -22,6 +22,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.subject.SubjectType;
+import ninja.leaping.permissionsex.util.CacheStatistics;
 import ninja.leaping.permissionsex.util.GuavaStartsWithPredicate;
 import ninja.leaping.permissionsex.util.Util;
 import ninja.leaping.permissionsex.util.command.ChildCommands;
@@ -33,6 +35,7 @@ import ninja.leaping.permissionsex.util.command.Commander;
 import ninja.leaping.permissionsex.util.command.args.CommandElement;
 
 import javax.annotation.Nullable;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -52,6 +55,7 @@ public class PermissionsExCommands {
                 .add(RankingCommands.getRankingCommand(pex))
                 .add(getImportCommand(pex))
                 .add(getReloadCommand(pex))
+                .add(getCacheCommand(pex))
                 .build();
 
         final CommandElement children = ChildCommands.args(childrenList.toArray(new CommandSpec[childrenList.size()]));
@@ -169,4 +173,44 @@ public class PermissionsExCommands {
                 .build();
     }
 
+    private static CommandSpec getCacheCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("cache")
+                .setDescription(t("Show statistics for the caches used by PermissionsEx"))
+                .setPermission("permissionsex.cache")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        src.msg(src.fmt().header(src.fmt().tr(t("Cache statistics"))));
+                        for (Map.Entry<String, Map<String, CacheStatistics>> type : pex.getCacheStatistics().entrySet()) {
+                            src.msg(src.fmt().hl(src.fmt().tr(t("Subject type %s:", type.getKey()))));
+                            for (Map.Entry<String, CacheStatistics> layer : type.getValue().entrySet()) {
+                                src.msg(formatStatistics(src, layer.getKey(), layer.getValue()));
+                            }
+                            final SubjectType subjects = pex.getSubjects(type.getKey());
+                            src.msg(src.fmt().combined("  ", src.fmt().tr(t("Stale data served: %s", subjects.getStaleDataServed()))));
+                        }
+                        src.msg(src.fmt().hl(src.fmt().tr(t("Rank ladders:"))));
+                        src.msg(formatStatistics(src, "rank-ladders", pex.getLadders().getCacheStatistics()));
+                    }
+                })
+                .build();
+    }
+
+    private static <TextType> TextType formatStatistics(Commander<TextType> src, String layer, CacheStatistics statistics) {
+        return src.fmt().combined("  ", src.fmt().tr(t("%s: %s hit rate, %s loads (p50 %s, p95 %s, p99 %s), %s evictions, %s entries with weight %s",
+                layer,
+                String.format("%.1f%%", statistics.getStats().hitRate() * 100),
+                statistics.getStats().loadCount(),
+                formatNanos(statistics.getLoadTimePercentile(0.5)),
+                formatNanos(statistics.getLoadTimePercentile(0.95)),
+                formatNanos(statistics.getLoadTimePercentile(0.99)),
+                statistics.getStats().evictionCount(),
+                statistics.getSize(),
+                statistics.getWeight())));
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
 }
@@ -0,0 +1,154 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.config;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
+import ninja.leaping.permissionsex.exception.PEBKACException;
+
+import java.util.List;
+
+import static ninja.leaping.permissionsex.util.Translations.t;
+
+/**
+ * Bounds for the caches PermissionsEx keeps. Most caches are bounded by weight, where the weight of a cached entry is
+ * roughly the number of permissions, options, and parents it holds.
+ */
+@ConfigSerializable
+public class CacheConfiguration {
+    @Setting("subject-data-weight") private long subjectDataWeight = 100000;
+    @Setting("baked-data-weight") private long bakedDataWeight = 16384;
+    @Setting("baked-data-expiry-minutes") private long bakedDataExpiry = 30;
+    @Setting("rank-ladder-weight") private long rankLadderWeight = 4096;
+    @Setting("subjects") private long subjects = 0;
+    @Setting("unregistered-subjects") private long unregisteredSubjects = 4096;
+    @Setting("unregistered-expiry-seconds") private long unregisteredExpiry = 30;
+    @Setting("warm-up-types") private List<String> warmUpTypes = ImmutableList.of("group");
+    @Setting("warm-up-batch-size") private int warmUpBatchSize = 256;
+    @Setting("warm-up-parallelism") private int warmUpParallelism = 4;
+
+    /**
+     * Get the maximum total weight of the subject data loaded from backends, for each subject type.
+     *
+     * @return The maximum weight
+     */
+    public long getSubjectDataWeight() {
+        return this.subjectDataWeight;
+    }
+
+    /**
+     * Get the maximum total weight of the baked data held by each subject. Subjects with identical baked data share
+     * a single instance, which still counts in full towards the bound of each subject holding it.
+     *
+     * @return The maximum weight
+     */
+    public long getBakedDataWeight() {
+        return this.bakedDataWeight;
+    }
+
+    /**
+     * Get how long baked data is kept after it was last accessed.
+     *
+     * @return The expiry time, in minutes
+     */
+    public long getBakedDataExpiry() {
+        return this.bakedDataExpiry;
+    }
+
+    /**
+     * Get the maximum total weight of the loaded rank ladders.
+     *
+     * @return The maximum weight
+     */
+    public long getRankLadderWeight() {
+        return this.rankLadderWeight;
+    }
+
+    /**
+     * Get the maximum number of subjects of each type kept calculated.
+     *
+     * @return The maximum number of subjects, or 0 if unbounded
+     */
+    public long getSubjects() {
+        return this.subjects;
+    }
+
+    /**
+     * Get the maximum number of subjects of each type remembered as not registered.
+     *
+     * @return The maximum number of subjects
+     */
+    public long getUnregisteredSubjects() {
+        return this.unregisteredSubjects;
+    }
+
+    /**
+     * Get how long a subject is remembered as not registered. Changes made through PermissionsEx are seen
+     * immediately, so this only bounds how long changes made directly to the backend may go unnoticed.
+     *
+     * @return The expiry time, in seconds
+     */
+    public long getUnregisteredExpiry() {
+        return this.unregisteredExpiry;
+    }
+
+    /**
+     * Get the subject types whose subjects are all loaded when PermissionsEx is enabled or reloaded.
+     *
+     * @return The subject types to warm up
+     */
+    public List<String> getWarmUpTypes() {
+        return this.warmUpTypes;
+    }
+
+    /**
+     * Get the number of subjects requested from the backend at once while warming caches.
+     *
+     * @return The batch size
+     */
+    public int getWarmUpBatchSize() {
+        return this.warmUpBatchSize;
+    }
+
+    /**
+     * Get the maximum number of batches loaded at once while warming caches.
+     *
+     * @return The number of batches
+     */
+    public int getWarmUpParallelism() {
+        return this.warmUpParallelism;
+    }
+
+    public void validate() throws PEBKACException {
+        if (subjectDataWeight <= 0 || bakedDataWeight <= 0 || rankLadderWeight <= 0) {
+            throw new PEBKACException(t("Cache weights must be positive!"));
+        }
+        if (bakedDataExpiry <= 0) {
+            throw new PEBKACException(t("Baked data expiry must be positive!"));
+        }
+        if (unregisteredSubjects < 0 || unregisteredExpiry < 0) {
+            throw new PEBKACException(t("Unregistered subject cache bounds must not be negative!"));
+        }
+        if (subjects < 0) {
+            throw new PEBKACException(t("Subject cache size must not be negative!"));
+        }
+        if (warmUpBatchSize <= 0 || warmUpParallelism <= 0) {
+            throw new PEBKACException(t("Cache warm-up batch size and parallelism must be positive!"));
+        }
+    }
+}
@@ -53,6 +53,9 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
     @Setting("default-backend") private String defaultBackend;
     @Setting private boolean debug;
     @Setting("server-tags") private List<String> serverTags;
+    @Setting("stale-data-max-age") private long staleDataMaxAge;
+    @Setting("bake-parallelism") private int bakeParallelism;
+    @Setting private CacheConfiguration caches = new CacheConfiguration();
 
     protected FilePermissionsExConfiguration(ConfigurationLoader<?> loader, ConfigurationNode node) {
         this.loader = loader;
@@ -124,6 +127,21 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
         return Collections.unmodifiableList(serverTags);
     }
 
+    @Override
+    public long getStaleDataMaxAge() {
+        return staleDataMaxAge;
+    }
+
+    @Override
+    public int getBakeParallelism() {
+        return bakeParallelism;
+    }
+
+    @Override
+    public CacheConfiguration getCaches() {
+        return caches;
+    }
+
     @Override
     public void validate() throws PEBKACException {
         if (backends.isEmpty()) {
@@ -136,6 +154,10 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
         if (!backends.containsKey(defaultBackend)) {
             throw new PEBKACException(t("Default backend % is not an available backend! Choices are: %s", defaultBackend, backends.keySet()));
         }
+        if (bakeParallelism < 0) {
+            throw new PEBKACException(t("Bake parallelism must not be negative!"));
+        }
+        caches.validate();
     }
 
     @Override
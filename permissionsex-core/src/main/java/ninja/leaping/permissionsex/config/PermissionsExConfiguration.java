@@ -34,6 +34,36 @@ public interface PermissionsExConfiguration {
 
     List<String> getServerTags();
 
+    /**
+     * Get how long outdated baked data may still be served for permission checks while replacement data is baked
+     * in the background. Zero disables serving outdated data, so checks wait for the new data instead.
+     *
+     * @return The maximum age of outdated data, in milliseconds
+     */
+    default long getStaleDataMaxAge() {
+        return 0;
+    }
+
+    /**
+     * Get the number of threads dedicated to loading inherited subject data while baking. Zero loads inherited data
+     * on the implementation's async executor instead.
+     *
+     * @return The number of baking threads
+     */
+    default int getBakeParallelism() {
+        return 0;
+    }
+
+    /**
+     * Get the bounds of the caches kept by PermissionsEx. These are applied again to existing caches on reload, although
+     * data from the backend is loaded again from the reloaded backend.
+     *
+     * @return The cache configuration
+     */
+    default CacheConfiguration getCaches() {
+        return new CacheConfiguration();
+    }
+
     void validate() throws PEBKACException;
 
     PermissionsExConfiguration reload() throws IOException;
@@ -0,0 +1,139 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+import ninja.leaping.permissionsex.util.Util;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ninja.leaping.permissionsex.util.Translations.t;
+
+/**
+ * Loads every subject of a set of subject caches ahead of use. Subjects are loaded in batches, which run on the data
+ * store's own executor. The warmer only bounds how many batches are in flight at once, starting the next batch as
+ * each one completes.
+ */
+public class CacheWarmer {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private final int batchSize, parallelism;
+    private final TranslatableLogger logger;
+
+    public CacheWarmer(int batchSize, int parallelism, TranslatableLogger logger) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.logger = Preconditions.checkNotNull(logger, "logger");
+    }
+
+    private static class Batch {
+        private final SubjectCache cache;
+        private final List<String> identifiers;
+
+        private Batch(SubjectCache cache, List<String> identifiers) {
+            this.cache = cache;
+            this.identifiers = identifiers;
+        }
+    }
+
+    /**
+     * Progress of a single warm-up
+     */
+    private class Progress {
+        private final Queue<Batch> remaining;
+        private final int subjectCount;
+        private final AtomicInteger loaded = new AtomicInteger();
+        private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+        private Progress(Queue<Batch> remaining, int subjectCount) {
+            this.remaining = remaining;
+            this.subjectCount = subjectCount;
+        }
+
+        /**
+         * Load remaining batches one at a time until none are left. Batches that complete immediately are followed on
+         * the same call, so a data store completing loads on the calling thread does not build up a chain of futures.
+         *
+         * @return A future completing once no batches are left
+         */
+        private CompletableFuture<Void> loadRemaining() {
+            Batch batch;
+            while ((batch = this.remaining.poll()) != null) {
+                final CompletableFuture<Void> load = load(batch);
+                if (!load.isDone()) {
+                    return load.thenCompose(none -> loadRemaining());
+                }
+            }
+            return Util.emptyFuture();
+        }
+
+        private CompletableFuture<Void> load(Batch batch) {
+            return batch.cache.getAll(batch.identifiers).handle((result, error) -> {
+                if (error != null) {
+                    logger.warn(t("Unable to load %s subjects of type %s while warming caches", batch.identifiers.size(), batch.cache.getType()),
+                            error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+                final int done = this.loaded.addAndGet(batch.identifiers.size());
+                final long now = System.nanoTime(), last = this.lastReport.get();
+                if (done < this.subjectCount && now - last >= PROGRESS_INTERVAL && this.lastReport.compareAndSet(last, now)) {
+                    logger.info(t("Warming caches: loaded %s of %s subjects", done, this.subjectCount));
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Load all subjects of the given caches, returning once every subject has been loaded or has failed to load.
+     * Progress is logged periodically while loading.
+     *
+     * @param caches The caches to fill
+     */
+    public void warm(Iterable<SubjectCache> caches) {
+        final Queue<Batch> batches = new ConcurrentLinkedQueue<>();
+        int total = 0;
+        for (SubjectCache cache : caches) {
+            for (List<String> identifiers : Iterables.partition(cache.getAllIdentifiers(), this.batchSize)) {
+                batches.add(new Batch(cache, ImmutableList.copyOf(identifiers)));
+                total += identifiers.size();
+            }
+        }
+        if (batches.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Progress progress = new Progress(batches, total);
+        final CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(this.parallelism, batches.size())];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = progress.loadRemaining();
+        }
+        CompletableFuture.allOf(workers).join();
+        this.logger.info(t("Loaded %s subjects in %sms", total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+}
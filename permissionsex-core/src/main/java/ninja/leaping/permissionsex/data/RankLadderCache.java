@@ -20,8 +20,12 @@ import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.base.Preconditions;
 import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
 import ninja.leaping.permissionsex.rank.RankLadder;
+import ninja.leaping.permissionsex.util.CacheStatistics;
+import ninja.leaping.permissionsex.util.CacheStatsCounter;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -32,15 +36,19 @@ public class RankLadderCache {
     private final AsyncLoadingCache<String, RankLadder> cache;
     private final Map<String, Caching<RankLadder>> cacheHolders = new ConcurrentHashMap<>();
     private final CacheListenerHolder<String, RankLadder> listeners;
+    private final CacheStatsCounter stats;
 
     public RankLadderCache(final DataStore dataStore) {
-        this(null, dataStore);
+        this(null, dataStore, new CacheConfiguration());
     }
 
-    public RankLadderCache(final RankLadderCache existing, final DataStore dataStore) {
+    public RankLadderCache(final RankLadderCache existing, final DataStore dataStore, CacheConfiguration caches) {
         this.dataStore = dataStore;
+        this.stats = existing == null ? new CacheStatsCounter() : existing.stats;
         cache = Caffeine.newBuilder()
-                .maximumSize(256)
+                .maximumWeight(caches.getRankLadderWeight())
+                .weigher((String key, RankLadder ladder) -> 1 + ladder.getRanks().size())
+                .recordStats(() -> this.stats)
                 .buildAsync(((key, executor) -> dataStore.getRankLadder(key, clearListener(key))));
         if (existing != null) {
             listeners = existing.listeners;
@@ -53,6 +61,15 @@ public class RankLadderCache {
     }
 
 
+    /**
+     * Get statistics for this cache. Statistics are kept across reloads.
+     *
+     * @return A snapshot of the statistics
+     */
+    public CacheStatistics getCacheStatistics() {
+        return CacheStatistics.of(this.stats, Collections.singleton(this.cache.synchronous()));
+    }
+
     public CompletableFuture<RankLadder> get(String identifier, Caching<RankLadder> listener) {
         Preconditions.checkNotNull(identifier, "identifier");
 
@@ -16,19 +16,31 @@
  */
 package ninja.leaping.permissionsex.data;
 
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
+import ninja.leaping.permissionsex.util.CacheStatistics;
+import ninja.leaping.permissionsex.util.CacheStatsCounter;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
@@ -39,9 +51,29 @@ public class SubjectCache {
     private final Map<String, Caching<ImmutableSubjectData>> cacheHolders = new ConcurrentHashMap<>();
     private final CacheListenerHolder<String, ImmutableSubjectData> listeners;
     private final Map.Entry<String, String> defaultIdentifier;
+    private volatile long maximumWeight;
+    private final CacheStatsCounter stats = new CacheStatsCounter();
+    /**
+     * Identifiers the data store recently reported as not registered. Any change of data made through this cache
+     * clears the identifier, and the entries expire quickly to bound staleness from changes made elsewhere.
+     */
+    private final Cache<String, Boolean> unregistered;
+    /**
+     * Incremented on every change of data, so that answers from registration checks that overlapped a change are not cached.
+     */
+    private final AtomicLong modifications = new AtomicLong();
 
     public SubjectCache(final String type, final DataStore dataStore) {
+        this(type, dataStore, new CacheConfiguration());
+    }
+
+    public SubjectCache(final String type, final DataStore dataStore, CacheConfiguration caches) {
         this.type = type;
+        this.maximumWeight = caches.getSubjectDataWeight();
+        this.unregistered = Caffeine.newBuilder()
+                .maximumSize(caches.getUnregisteredSubjects())
+                .expireAfterWrite(caches.getUnregisteredExpiry(), TimeUnit.SECONDS)
+                .build();
         update(dataStore);
         this.defaultIdentifier = Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, type);
         this.listeners = new CacheListenerHolder<>();
@@ -49,15 +81,63 @@ public class SubjectCache {
 
     public void update(DataStore newDataStore) {
         this.dataStore = newDataStore;
+        this.modifications.incrementAndGet();
+        this.unregistered.invalidateAll();
         AsyncLoadingCache<String, ImmutableSubjectData> oldCache = this.cache.getAndSet(Caffeine.newBuilder()
-                        .maximumSize(512)
-                        .buildAsync(((key, executor) -> dataStore.getData(type, key, clearListener(key)))));
+                        .maximumWeight(this.maximumWeight)
+                        .weigher((String key, ImmutableSubjectData data) -> weigh(data))
+                        .recordStats(() -> this.stats)
+                        .buildAsync(new AsyncCacheLoader<String, ImmutableSubjectData>() {
+                            @Override
+                            public CompletableFuture<ImmutableSubjectData> asyncLoad(String key, Executor executor) {
+                                return dataStore.getData(type, key, clearListener(key));
+                            }
+
+                            @Override
+                            public CompletableFuture<Map<String, ImmutableSubjectData>> asyncLoadAll(Iterable<? extends String> keys, Executor executor) {
+                                return dataStore.getAllData(type, ImmutableList.copyOf(keys), SubjectCache.this::clearListener);
+                            }
+                        }));
         if (oldCache != null) {
-            oldCache.synchronous().asMap().forEach((k, v) -> {
-                    getData(k, null).thenAccept(data -> listeners.call(k, data));
-                    // TODO: Not ignore this somehow? Add a listener in to the backend?
-            });
+            getAll(oldCache.synchronous().asMap().keySet()).thenAccept(loaded -> loaded.forEach(listeners::call));
+            // TODO: Not ignore this somehow? Add a listener in to the backend?
+        }
+    }
+
+    /**
+     * Apply new bounds to this cache. The current cache is resized in place, keeping loaded data where it fits, and
+     * the caches created by later calls to {@link #update(DataStore)} use the new bounds.
+     *
+     * @param caches The cache configuration
+     */
+    public void updateCaches(CacheConfiguration caches) {
+        this.maximumWeight = caches.getSubjectDataWeight();
+        this.cache.get().synchronous().policy().eviction().ifPresent(eviction -> eviction.setMaximum(this.maximumWeight));
+        this.unregistered.policy().eviction().ifPresent(eviction -> eviction.setMaximum(caches.getUnregisteredSubjects()));
+        this.unregistered.policy().expireAfterWrite().ifPresent(expiry -> expiry.setExpiresAfter(caches.getUnregisteredExpiry(), TimeUnit.SECONDS));
+    }
+
+    /**
+     * Get statistics for this cache. Statistics are kept across changes of data store.
+     *
+     * @return A snapshot of the statistics
+     */
+    public CacheStatistics getCacheStatistics() {
+        return CacheStatistics.of(this.stats, Collections.singleton(this.cache.get().synchronous()));
+    }
+
+    private static int weigh(ImmutableSubjectData data) {
+        int weight = 1;
+        for (Map<String, Integer> permissions : data.getAllPermissions().values()) {
+            weight += permissions.size();
+        }
+        for (Map<String, String> options : data.getAllOptions().values()) {
+            weight += options.size();
+        }
+        for (List<Map.Entry<String, String>> parents : data.getAllParents().values()) {
+            weight += parents.size();
         }
+        return weight;
     }
 
     public CompletableFuture<ImmutableSubjectData> getData(String identifier, Caching<ImmutableSubjectData> listener) {
@@ -72,6 +152,39 @@ public class SubjectCache {
         return ret;
     }
 
+    /**
+     * Get the data of several subjects. Subjects that are not already loaded are fetched from the data store together.
+     *
+     * @param identifiers The identifiers of the subjects
+     * @return The data of each subject, by identifier
+     */
+    public CompletableFuture<Map<String, ImmutableSubjectData>> getAll(Collection<String> identifiers) {
+        Objects.requireNonNull(identifiers, "identifiers");
+
+        return cache.get().getAll(identifiers);
+    }
+
+    /**
+     * Get the data for a subject only if it has already been loaded, without waiting for or starting a load.
+     *
+     * @param identifier The identifier of the subject
+     * @param listener A listener to register if the data is present
+     * @return The loaded data, or null if the data is not currently available
+     */
+    @Nullable
+    public ImmutableSubjectData getDataIfPresent(String identifier, @Nullable Caching<ImmutableSubjectData> listener) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        CompletableFuture<ImmutableSubjectData> ret = cache.get().getIfPresent(identifier);
+        if (ret == null || !ret.isDone() || ret.isCompletedExceptionally()) {
+            return null;
+        }
+        if (listener != null) {
+            listeners.addListener(identifier, listener);
+        }
+        return ret.join();
+    }
+
     public CompletableFuture<SubjectDataReference> getReference(String identifier) {
         return getReference(identifier, true);
     }
@@ -106,20 +219,33 @@ public class SubjectCache {
         Objects.requireNonNull(identifier, "identifier");
 
         cache.get().synchronous().invalidate(identifier);
+        markModified(identifier);
         cacheHolders.remove(identifier);
         listeners.removeAll(identifier);
     }
 
     public void cacheAll() {
-        for (String ident : dataStore.getAllIdentifiers(type)) {
-            cache.get().synchronous().refresh(ident);
-        }
+        getAll(dataStore.getAllIdentifiers(type));
     }
 
     public CompletableFuture<Boolean> isRegistered(String identifier) {
         Objects.requireNonNull(identifier, "identifier");
 
-        return dataStore.isRegistered(type, identifier);
+        if (this.unregistered.getIfPresent(identifier) != null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final long modificationsBefore = this.modifications.get();
+        return dataStore.isRegistered(type, identifier).thenApply(registered -> {
+            if (!registered && this.modifications.get() == modificationsBefore) {
+                this.unregistered.put(identifier, Boolean.TRUE);
+            }
+            return registered;
+        });
+    }
+
+    private void markModified(String identifier) {
+        this.modifications.incrementAndGet();
+        this.unregistered.invalidate(identifier);
     }
 
     public CompletableFuture<ImmutableSubjectData> remove(String identifier) {
@@ -129,11 +255,13 @@ public class SubjectCache {
     CompletableFuture<ImmutableSubjectData> set(String identifier, @Nullable ImmutableSubjectData newData) {
         Objects.requireNonNull(identifier, "identifier");
 
-        return dataStore.setData(type, identifier, newData);
+        markModified(identifier);
+        return dataStore.setData(type, identifier, newData).whenComplete((data, error) -> markModified(identifier));
     }
 
     private Caching<ImmutableSubjectData> clearListener(final String name) {
         Caching<ImmutableSubjectData> ret = newData -> {
+            markModified(name);
             cache.get().put(name, CompletableFuture.completedFuture(newData));
             listeners.call(name, newData);
         };
@@ -148,6 +276,13 @@ public class SubjectCache {
         listeners.addListener(identifier, listener);
     }
 
+    public void removeListener(String identifier, Caching<ImmutableSubjectData> listener) {
+        Objects.requireNonNull(identifier, "identifier");
+        Objects.requireNonNull(listener, "listener");
+
+        listeners.removeListener(identifier, listener);
+    }
+
     public String getType() {
         return type;
     }
@@ -16,6 +16,8 @@
  */
 package ninja.leaping.permissionsex.logging;
 
+import ninja.leaping.permissionsex.util.PermissionDictionary;
+
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -41,7 +43,7 @@ public class RecordingPermissionCheckNotifier implements PermissionCheckNotifier
     }
     @Override
     public void onPermissionCheck(Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, String permission, int value) {
-        knownPermissions.add(permission);
+        knownPermissions.add(PermissionDictionary.intern(permission));
 
     }
 
@@ -0,0 +1,242 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.util.glob.GlobNode;
+import ninja.leaping.permissionsex.util.glob.GlobParseException;
+import ninja.leaping.permissionsex.util.glob.Globs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Map.Entry;
+
+/**
+ * The ordered segments of subject data that were combined into a subject's baked data for one set of contexts.
+ * When an inherited subject changes without changing the shape of the inheritance tree, the baked data can be
+ * recomputed from the record with only that subject's segments replaced, without walking the tree again.
+ */
+final class BakeRecord {
+    private final List<Source> sources;
+    private final ContextCombinations combinations;
+    private final BakedSubjectData result;
+
+    BakeRecord(List<Source> sources, ContextCombinations combinations) {
+        this.sources = ImmutableList.copyOf(sources);
+        this.combinations = combinations;
+        this.result = combine(this.sources);
+    }
+
+    /**
+     * A single segment of subject data visited while baking, and where it was loaded from.
+     */
+    static final class Source {
+        private final SubjectCache cache;
+        private final String identifier;
+        private final ImmutableSubjectData data;
+        private final Set<Entry<String, String>> contexts;
+        private final boolean inherited;
+        private final Contribution contribution;
+
+        /**
+         * @param cache The cache the data was loaded from
+         * @param identifier The identifier of the subject the data belongs to
+         * @param data The subject data
+         * @param contexts The context combination visited
+         * @param inherited Whether the data was visited further up the inheritance tree than the baked subject's
+         *                  direct parents, which excludes permissions prefixed with '#'
+         */
+        Source(SubjectCache cache, String identifier, ImmutableSubjectData data, Set<Entry<String, String>> contexts, boolean inherited) {
+            this.cache = cache;
+            this.identifier = identifier;
+            this.data = data;
+            this.contexts = contexts;
+            this.inherited = inherited;
+            this.contribution = Contribution.of(data, contexts, inherited);
+        }
+
+        private Source withData(ImmutableSubjectData newData) {
+            return new Source(this.cache, this.identifier, newData, this.contexts, this.inherited);
+        }
+
+        Source withInherited(boolean inherited) {
+            return new Source(this.cache, this.identifier, this.data, this.contexts, inherited);
+        }
+
+        boolean isInherited() {
+            return this.inherited;
+        }
+
+        /**
+         * Get the subject this data belongs to.
+         *
+         * @return The type and identifier of the subject
+         */
+        Entry<String, String> getSubject() {
+            return Maps.immutableEntry(this.cache.getType(), this.identifier);
+        }
+    }
+
+    /**
+     * The values contributed to baked data by one segment of subject data. Contributions only depend on the data
+     * they are computed from, so they are shared between every subject inheriting that data.
+     */
+    private static final class Contribution {
+        private static final ConcurrentMap<ImmutableSubjectData, ConcurrentMap<Entry<Set<Entry<String, String>>, Boolean>, Contribution>> CONTRIBUTIONS
+                = new MapMaker().weakKeys().makeMap();
+
+        private final GlobNode[] permissions;
+        private final int[] permissionValues;
+        private final List<Entry<String, String>> parents;
+        private final Map<String, String> options;
+        private final int defaultValue;
+
+        private Contribution(GlobNode[] permissions, int[] permissionValues, List<Entry<String, String>> parents, Map<String, String> options, int defaultValue) {
+            this.permissions = permissions;
+            this.permissionValues = permissionValues;
+            this.parents = parents;
+            this.options = options;
+            this.defaultValue = defaultValue;
+        }
+
+        static Contribution of(ImmutableSubjectData data, Set<Entry<String, String>> contexts, boolean inherited) {
+            return CONTRIBUTIONS.computeIfAbsent(data, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(Maps.immutableEntry(contexts, inherited), k -> compute(data, contexts, inherited));
+        }
+
+        private static Contribution compute(ImmutableSubjectData data, Set<Entry<String, String>> contexts, boolean inherited) {
+            List<GlobNode> permissions = new ArrayList<>();
+            List<Integer> values = new ArrayList<>();
+            for (Map.Entry<String, Integer> ent : data.getPermissions(contexts).entrySet()) {
+                String perm = ent.getKey();
+                if (perm.startsWith("#")) { // Prefix to exclude from inheritance
+                    if (inherited) {
+                        continue;
+                    }
+                    perm = perm.substring(1);
+                }
+
+                GlobNode glob;
+                try {
+                    glob = Globs.parse(perm);
+                } catch (GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
+                    glob = Globs.literal(perm);
+                }
+                permissions.add(glob);
+                values.add(ent.getValue());
+            }
+
+            int[] permissionValues = new int[values.size()];
+            for (int i = 0; i < permissionValues.length; ++i) {
+                permissionValues[i] = values.get(i);
+            }
+            return new Contribution(permissions.toArray(new GlobNode[permissions.size()]), permissionValues,
+                    data.getParents(contexts), data.getOptions(contexts), data.getDefaultValue(contexts));
+        }
+    }
+
+    /**
+     * Combine contributions in visit order. For permissions the value with the greatest magnitude wins, and for
+     * options and the default value the first value wins, with ties going to the earliest visited segment.
+     */
+    private static BakedSubjectData combine(List<Source> sources) {
+        final NodeTree.Builder permissions = NodeTree.builder();
+        final List<Entry<String, String>> parents = new ArrayList<>();
+        final Map<String, String> options = new HashMap<>();
+        int defaultValue = 0;
+
+        for (Source source : sources) {
+            final Contribution contribution = source.contribution;
+            for (int i = 0; i < contribution.permissions.length; ++i) {
+                permissions.putIfStronger(contribution.permissions[i], contribution.permissionValues[i]);
+            }
+            parents.addAll(contribution.parents);
+            for (Map.Entry<String, String> ent : contribution.options.entrySet()) {
+                options.putIfAbsent(ent.getKey(), ent.getValue());
+            }
+            if (Math.abs(contribution.defaultValue) > Math.abs(defaultValue)) {
+                defaultValue = contribution.defaultValue;
+            }
+        }
+        return BakedDataInterner.intern(permissions.setDefaultValue(defaultValue).build(), ImmutableList.copyOf(parents), ImmutableMap.copyOf(options));
+    }
+
+    /**
+     * Check whether all the given sources still hold the data currently cached for their subjects.
+     *
+     * @param sources The sources to check
+     * @return Whether every source is up to date
+     */
+    static boolean isCurrent(List<Source> sources) {
+        for (Source source : sources) {
+            if (source.cache.getDataIfPresent(source.identifier, null) != source.data) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    BakedSubjectData getResult() {
+        return this.result;
+    }
+
+    /**
+     * Get a record with the data of one subject replaced.
+     *
+     * @param cache The cache the changed data belongs to
+     * @param identifier The identifier of the changed subject
+     * @param newData The new data for the subject
+     * @return This record if the subject was not part of it, a new record if its data could be replaced in place,
+     *          or null if the change affects which subjects or segments are visited, so the subject must be baked again
+     */
+    BakeRecord withChangedData(SubjectCache cache, String identifier, ImmutableSubjectData newData) {
+        List<Source> newSources = null;
+        ImmutableSubjectData checkedData = null;
+        for (int i = 0; i < this.sources.size(); ++i) {
+            final Source source = this.sources.get(i);
+            if (source.cache != cache || !source.identifier.equals(identifier)) {
+                continue;
+            }
+            if (source.data != checkedData) {
+                if (!this.combinations.segmentsOf(source.data).equals(this.combinations.segmentsOf(newData))) {
+                    return null;
+                }
+                checkedData = source.data;
+            }
+            if (!source.data.getParents(source.contexts).equals(newData.getParents(source.contexts))) {
+                return null;
+            }
+            if (newSources == null) {
+                newSources = new ArrayList<>(this.sources);
+            }
+            newSources.set(i, source.withData(newData));
+        }
+        return newSources == null ? this : new BakeRecord(newSources, this.combinations);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import ninja.leaping.permissionsex.util.NodeTree;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicates structurally equal baked data, so subjects that bake to the same result share a single instance.
+ * Instances are held weakly, and are released once no subject's cache references them anymore.
+ */
+final class BakedDataInterner {
+    private static final Interner<NodeTree> TREES = Interners.newWeakInterner();
+    private static final Interner<List<Map.Entry<String, String>>> PARENTS = Interners.newWeakInterner();
+    private static final Interner<Map<String, String>> OPTIONS = Interners.newWeakInterner();
+    private static final Interner<BakedSubjectData> DATA = Interners.newWeakInterner();
+
+    private BakedDataInterner() {
+    }
+
+    /**
+     * Get the canonical baked data instance for the given components. Each component is also interned individually,
+     * so subjects that only share some of their baked data still share those parts.
+     *
+     * @param permissions The baked permissions
+     * @param parents The baked parents. Must be immutable
+     * @param options The baked options. Must be immutable
+     * @return The canonical instance
+     */
+    static BakedSubjectData intern(NodeTree permissions, List<Map.Entry<String, String>> parents, Map<String, String> options) {
+        return DATA.intern(new BakedSubjectData(TREES.intern(permissions), PARENTS.intern(parents), OPTIONS.intern(options)));
+    }
+}
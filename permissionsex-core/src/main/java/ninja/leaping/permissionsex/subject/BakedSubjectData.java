@@ -51,6 +51,15 @@ class BakedSubjectData {
         return options;
     }
 
+    /**
+     * Get an estimate of the memory held by this data, in units of roughly one permission, option, or parent.
+     *
+     * @return The weight of this data
+     */
+    public int getWeight() {
+        return 1 + permissions.getNodeCount() + parents.size() + options.size();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
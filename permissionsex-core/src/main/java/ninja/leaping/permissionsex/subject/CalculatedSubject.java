@@ -17,19 +17,26 @@
 package ninja.leaping.permissionsex.subject;
 
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import ninja.leaping.permissionsex.PermissionsEx;
-import ninja.leaping.permissionsex.data.Caching;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.data.SubjectCache;
 import ninja.leaping.permissionsex.data.SubjectDataReference;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.NodeTree;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.Map.Entry;
@@ -37,27 +44,112 @@ import static java.util.Map.Entry;
 /**
  * This is a holder that maintains the current subject data state
  */
-public class CalculatedSubject implements Caching<ImmutableSubjectData> {
+public class CalculatedSubject {
+    private static final int MAX_CACHED_CONTEXTS = 32;
+    private static final int MAX_MEMOIZED_PERMISSIONS = 256;
     private final SubjectDataBaker baker;
     private final Map.Entry<String, String> identifier;
     private final SubjectType type;
     private SubjectDataReference ref, transientRef;
 
     private final AsyncLoadingCache<Set<Entry<String, String>>, BakedSubjectData> data;
+    /**
+     * Results of recent permission checks, by context set. This map is replaced as a whole whenever baked data is
+     * invalidated, so memos computed from outdated data are discarded along with it. Memos are also removed when the
+     * baked data of their context set is evicted.
+     */
+    private volatile ConcurrentMap<Set<Entry<String, String>>, PermissionMemo> permissionMemos = new ConcurrentHashMap<>();
+    /**
+     * The inputs of the baked data currently cached, by context set
+     */
+    private final ConcurrentMap<Set<Entry<String, String>>, BakeRecord> bakeRecords = new ConcurrentHashMap<>();
+    /**
+     * Invalidated baked data that may still be served while its replacement is baked, by context set
+     */
+    private final ConcurrentMap<Set<Entry<String, String>>, StaleData> staleData = new ConcurrentHashMap<>();
+
+    /**
+     * Baked data that has been invalidated, and the time until which it may still be served
+     */
+    private static class StaleData {
+        private final BakedSubjectData data;
+        private final long expiry;
+
+        private StaleData(BakedSubjectData data, long expiry) {
+            this.data = data;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * Memoized permission results for the baked data of a single context set
+     */
+    private static class PermissionMemo {
+        private final NodeTree permissions;
+        private final ConcurrentMap<String, Integer> results = new ConcurrentHashMap<>();
+
+        private PermissionMemo(NodeTree permissions) {
+            this.permissions = permissions;
+        }
+
+        private int get(String permission) {
+            Integer ret = this.results.get(permission);
+            if (ret == null) {
+                ret = this.permissions.get(permission);
+                if (this.results.size() >= MAX_MEMOIZED_PERMISSIONS) {
+                    this.results.clear();
+                }
+                this.results.put(permission, ret);
+            }
+            return ret;
+        }
+    }
 
     CalculatedSubject(SubjectDataBaker baker, Map.Entry<String, String> identifier, SubjectType type) {
         this.baker = Preconditions.checkNotNull(baker, "baker");
         this.identifier = Preconditions.checkNotNull(identifier, "identifier");
         this.type = Preconditions.checkNotNull(type, "type");
+        final CacheConfiguration caches = type.getManager().getConfig().getCaches();
         this.data = Caffeine.newBuilder()
-                .maximumSize(32)
-                .expireAfterAccess(30, TimeUnit.MINUTES)
+                .maximumWeight(caches.getBakedDataWeight())
+                .weigher((Set<Entry<String, String>> key, BakedSubjectData value) -> value.getWeight())
+                .expireAfterAccess(caches.getBakedDataExpiry(), TimeUnit.MINUTES)
+                .recordStats(type::getBakedDataStats)
+                .executor(Runnable::run) // Removals only update bookkeeping, which must happen before the next query
+                .removalListener((Set<Entry<String, String>> key, BakedSubjectData value, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        this.bakeRecords.computeIfPresent(key, (k, record) -> record.getResult() == value ? null : record);
+                        // Changes to inherited data no longer reach evicted data, so neither would they reach its memo
+                        this.permissionMemos.remove(key);
+                    }
+                })
                 .buildAsync(((key, executor) -> this.baker.bake(CalculatedSubject.this, key)));
     }
 
+    /**
+     * Apply new bounds to the baked data cache, keeping the currently baked data where it fits.
+     *
+     * @param caches The cache configuration
+     */
+    void updateCaches(CacheConfiguration caches) {
+        data.synchronous().policy().eviction().ifPresent(eviction -> eviction.setMaximum(caches.getBakedDataWeight()));
+        data.synchronous().policy().expireAfterAccess().ifPresent(expiry -> expiry.setExpiresAfter(caches.getBakedDataExpiry(), TimeUnit.MINUTES));
+    }
+
+    /**
+     * Get the cache holding baked data, for measuring its size.
+     *
+     * @return The baked data cache
+     */
+    Cache<Set<Entry<String, String>>, BakedSubjectData> getBakedDataCache() {
+        return data.synchronous();
+    }
+
     void initialize(SubjectDataReference persistentRef, SubjectDataReference transientRef) {
         this.ref = persistentRef;
         this.transientRef = transientRef;
+        persistentRef.onUpdate(newData -> inheritedDataChanged(this.type, persistentRef.getCache(), this.identifier.getValue(), newData));
+        transientRef.onUpdate(newData -> inheritedDataChanged(this.type, transientRef.getCache(), this.identifier.getValue(), newData));
     }
 
     public Map.Entry<String, String> getIdentifier() {
@@ -70,7 +162,29 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
 
     private BakedSubjectData getData(Set<Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
-        return data.synchronous().get(ImmutableSet.copyOf(contexts));
+        final ContextSet key = ContextSet.of(contexts);
+        final StaleData stale = this.staleData.get(key);
+        if (stale != null && System.currentTimeMillis() <= stale.expiry) {
+            // The replacement is baked on the async executor, so the caller must not start baking it itself
+            final CompletableFuture<BakedSubjectData> replacement = data.getIfPresent(key);
+            if (replacement == null || !replacement.isDone()) {
+                this.type.onStaleDataServed();
+                return stale.data;
+            }
+        }
+        return data.synchronous().get(key);
+    }
+
+    /**
+     * Bake this subject's data for a set of contexts ahead of time, without blocking the calling thread on loading
+     * inherited data. Once the returned future completes, queries in those contexts are served from cache.
+     *
+     * @param contexts The contexts to bake data for
+     * @return A future completing once the data has been baked
+     */
+    public CompletableFuture<Void> prebake(Set<Map.Entry<String, String>> contexts) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        return data.get(ContextSet.of(contexts)).thenApply(baked -> null);
     }
 
     public NodeTree getPermissions(Set<Map.Entry<String, String>> contexts) {
@@ -87,16 +201,44 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
         return parents;
     }
 
-    private Set<Set<Map.Entry<String, String>>> getActiveContexts() {
-        return data.synchronous().asMap().keySet();
-    }
-
     public int getPermission(Set<Entry<String, String>> contexts, String permission) {
-        int ret = getPermissions(contexts).get(Preconditions.checkNotNull(permission, "permission"));
+        Preconditions.checkNotNull(permission, "permission");
+        int ret = getPermissionMemo(contexts).get(permission);
         getManager().getNotifier().onPermissionCheck(getIdentifier(), contexts, permission, ret);
         return ret;
     }
 
+    private PermissionMemo getPermissionMemo(Set<Entry<String, String>> rawContexts) {
+        // The memo map must be read before the baked data, so memos of outdated data can only end up in a discarded map
+        final ConcurrentMap<Set<Entry<String, String>>, PermissionMemo> memos = this.permissionMemos;
+        final ContextSet contexts = ContextSet.of(Preconditions.checkNotNull(rawContexts, "contexts"));
+        PermissionMemo memo = memos.get(contexts);
+        if (memo != null && data.getIfPresent(contexts) == null) {
+            // Reading the baked data counts as an access, so data behind a memo in use does not expire. Once it has
+            // expired the memo no longer follows changes to inherited data, and must be recomputed
+            memos.remove(contexts, memo);
+            memo = null;
+        }
+        if (memo == null) {
+            if (this.staleData.containsKey(contexts)) {
+                // Results may come from stale data, which must not outlive its replacement
+                return new PermissionMemo(getPermissions(contexts));
+            }
+            if (memos.size() >= MAX_CACHED_CONTEXTS) {
+                memos.clear();
+            }
+            memo = new PermissionMemo(getPermissions(contexts));
+            PermissionMemo existing = memos.putIfAbsent(contexts, memo);
+            if (existing != null) {
+                memo = existing;
+            } else if (!data.synchronous().asMap().containsKey(contexts)) {
+                // The baked data was evicted before the memo was stored, so the memo would not be removed with it
+                memos.remove(contexts, memo);
+            }
+        }
+        return memo;
+    }
+
     public Optional<String> getOption(Set<Entry<String, String>> contexts, String option) {
         String val = getOptions(contexts).get(Preconditions.checkNotNull(option, "option"));
         getManager().getNotifier().onOptionCheck(getIdentifier(), contexts, option, val);
@@ -111,20 +253,84 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
         return this.transientRef;
     }
 
-    @Override
-    public void clearCache(ImmutableSubjectData newData) {
-        data.synchronous().invalidateAll();
-        getManager().getActiveSubjectTypes().stream()
-                .flatMap(type -> type.getActiveSubjects().stream())
-                .filter(subj -> {
-                    for (Set<Map.Entry<String, String>> ent : subj.getActiveContexts()) {
-                        if (subj.getParents(ent).contains(this.identifier)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                })
-                .forEach(subj -> subj.data.synchronous().invalidateAll());
+    /**
+     * Discard the baked data for a single context set. If stale data may be served, the current data is kept
+     * until its replacement has been baked in the background, or its maximum age has passed.
+     *
+     * @param contexts The context set to discard data for
+     * @param maxStaleAge The time in milliseconds the current data may still be served for
+     */
+    private void invalidate(Set<Entry<String, String>> contexts, long maxStaleAge) {
+        final CompletableFuture<BakedSubjectData> current = data.getIfPresent(contexts);
+        data.synchronous().invalidate(contexts);
+        if (maxStaleAge <= 0 || current == null || !current.isDone() || current.isCompletedExceptionally()) {
+            return;
+        }
+
+        // Data that is already stale stays bounded by the time it first became stale
+        final StaleData stale = this.staleData.merge(contexts, new StaleData(current.join(), System.currentTimeMillis() + maxStaleAge),
+                (existing, replacement) -> new StaleData(replacement.data, existing.expiry));
+        getManager().getAsyncExecutor().execute(() -> data.get(contexts).whenComplete((result, error) -> {
+            if (this.staleData.remove(contexts, stale)) {
+                this.permissionMemos = new ConcurrentHashMap<>();
+            }
+        }));
+    }
+
+    /**
+     * Store the inputs that produced baked data, so the data can be updated in place when one of them changes.
+     *
+     * @param contexts The context set the data was baked for
+     * @param record The record of the bake
+     */
+    void recordBake(Set<Entry<String, String>> contexts, BakeRecord record) {
+        this.bakeRecords.put(contexts, record);
+    }
+
+    /**
+     * Update baked data after the data of this subject or a subject it inherits from has changed. Where the change leaves
+     * the inheritance tree the same, baked data is recomputed from the recorded inputs with the new data substituted.
+     * Otherwise, the baked data is discarded to be baked again on next access.
+     *
+     * @param type The type of the changed subject
+     * @param cache The cache holding the changed data
+     * @param identifier The identifier of the changed subject
+     * @param newData The new data
+     */
+    void inheritedDataChanged(SubjectType type, SubjectCache cache, String identifier, ImmutableSubjectData newData) {
+        final long maxStaleAge = getManager().getConfig().getStaleDataMaxAge();
+        boolean changed = false, stillDependent = false;
+        for (Set<Entry<String, String>> contexts : ImmutableSet.copyOf(data.synchronous().asMap().keySet())) {
+            final CompletableFuture<BakedSubjectData> current = data.getIfPresent(contexts);
+            final BakeRecord record = this.bakeRecords.get(contexts);
+            if (current == null) {
+                continue;
+            }
+            if (record == null || !current.isDone() || current.isCompletedExceptionally() || current.join() != record.getResult()) {
+                // A bake is in progress, and may have seen the old data
+                invalidate(contexts, maxStaleAge);
+                changed = true;
+                continue;
+            }
+
+            final BakeRecord updated = record.withChangedData(cache, identifier, newData);
+            if (updated == null) {
+                this.bakeRecords.remove(contexts);
+                invalidate(contexts, maxStaleAge);
+                changed = true;
+            } else if (updated != record) {
+                this.bakeRecords.put(contexts, updated);
+                data.put(contexts, CompletableFuture.completedFuture(updated.getResult()));
+                changed = true;
+                stillDependent = true;
+            }
+        }
+        if (changed) {
+            this.permissionMemos = new ConcurrentHashMap<>();
+        }
+        if (stillDependent) {
+            type.addDependent(identifier, this);
+        }
     }
 
     public SubjectType getType() {
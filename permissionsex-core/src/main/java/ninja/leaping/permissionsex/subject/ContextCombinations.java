@@ -0,0 +1,101 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.util.ContextSet;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Map.Entry;
+
+/**
+ * The context combinations visited while baking, in visit order. Subject data is only visited in the combinations
+ * it has segments for, which are found by looking up each of its segment keys in an index of the combinations.
+ */
+final class ContextCombinations {
+    private static final int MAX_CACHED_COMBINATIONS = 512;
+    private static final Cache<ContextSet, ContextCombinations> COMBINATIONS = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_COMBINATIONS)
+            .build();
+
+    private final ImmutableList<Set<Entry<String, String>>> combinations;
+    private final ImmutableMap<Set<Entry<String, String>>, Integer> indices;
+    private final int globalIndex;
+
+    private ContextCombinations(List<ContextSet> combinations) {
+        this.combinations = ImmutableList.copyOf(combinations);
+        ImmutableMap.Builder<Set<Entry<String, String>>, Integer> indices = ImmutableMap.builder();
+        for (int i = 0; i < this.combinations.size(); ++i) {
+            indices.put(this.combinations.get(i), i);
+        }
+        this.indices = indices.build();
+        Integer globalIndex = this.indices.get(ContextSet.empty());
+        this.globalIndex = globalIndex == null ? -1 : globalIndex;
+    }
+
+    /**
+     * Get the combinations of a context set, which are every subset of it. Combinations only depend on the contexts
+     * they are built from, so they are shared between every bake for the same contexts.
+     *
+     * @param contexts The contexts, including inherited contexts
+     * @return The combinations of the contexts
+     */
+    static ContextCombinations of(ContextSet contexts) {
+        return COMBINATIONS.get(contexts, k -> new ContextCombinations(k.subsets()));
+    }
+
+    /**
+     * Get every combination, in visit order.
+     *
+     * @return The combinations
+     */
+    Set<Set<Entry<String, String>>> asSet() {
+        return this.indices.keySet();
+    }
+
+    Set<Entry<String, String>> get(int index) {
+        return this.combinations.get(index);
+    }
+
+    /**
+     * Get the indices of the combinations that subject data has segments for. The global combination is always
+     * included, so that every subject visited contributes at least one segment to a bake.
+     *
+     * @param data The subject data
+     * @return A new bit set containing the indices of the combinations to visit
+     */
+    BitSet segmentsOf(ImmutableSubjectData data) {
+        final BitSet ret = new BitSet(this.combinations.size());
+        if (this.globalIndex >= 0) {
+            ret.set(this.globalIndex);
+        }
+        for (Set<Entry<String, String>> segment : data.getActiveContexts()) {
+            Integer index = this.indices.get(segment);
+            if (index != null) {
+                ret.set(index);
+            }
+        }
+        return ret;
+    }
+}
@@ -16,27 +16,22 @@
  */
 package ninja.leaping.permissionsex.subject;
 
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
-import ninja.leaping.permissionsex.util.Combinations;
-import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.util.ContextSet;
 import ninja.leaping.permissionsex.util.Util;
-import ninja.leaping.permissionsex.util.glob.GlobParseException;
-import ninja.leaping.permissionsex.util.glob.Globs;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
@@ -47,7 +42,6 @@ import static ninja.leaping.permissionsex.util.Translations.t;
  * Handles baking of subject data inheritance tree and context tree into a single data set
  */
 class InheritanceSubjectDataBaker implements SubjectDataBaker {
-    private static final int CIRCULAR_INHERITANCE_THRESHOLD = 3;
     static final SubjectDataBaker INSTANCE = new InheritanceSubjectDataBaker();
 
     private InheritanceSubjectDataBaker() {
@@ -55,122 +49,308 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
 
     private static class BakeState {
         // Accumulators
-        private final Map<String, Integer> combinedPermissions = new HashMap<>();
-        private final List<Entry<String, String>> parents = new ArrayList<>();
-        private final Map<String, String> options = new HashMap<>();
-        private int defaultValue;
+        private final List<BakeRecord.Source> sources = Collections.synchronizedList(new ArrayList<>());
+        private final Set<Entry<String, String>> visited = Sets.newConcurrentHashSet();
+        private final Set<Entry<String, String>> directParents = Sets.newConcurrentHashSet();
+        private volatile boolean cycleFound;
 
         // State objects
         private final CalculatedSubject base;
         private final PermissionsEx pex;
-        private final Set<Set<Entry<String, String>>> activeContexts;
+        private final Set<Entry<String, String>> rawContexts;
+        private final ContextCombinations activeContexts;
 
-        private BakeState(CalculatedSubject base, Set<Set<Entry<String, String>>> activeContexts) {
+        private BakeState(CalculatedSubject base, Set<Entry<String, String>> rawContexts, ContextCombinations activeContexts) {
             this.base = base;
+            this.rawContexts = rawContexts;
             this.activeContexts = activeContexts;
             this.pex = base.getManager();
         }
     }
 
-    private static CompletableFuture<Set<Set<Entry<String, String>>>> processContexts(PermissionsEx pex, Set<Entry<String, String>> rawContexts) {
-        return pex.getContextInheritance(null).thenApply(inheritance -> {
-            Queue<Entry<String, String>> inProgressContexts = new LinkedList<>(rawContexts);
-            Set<Entry<String, String>> contexts = new HashSet<>();
-            Entry<String, String> context;
-            while ((context = inProgressContexts.poll()) != null) {
-                if (contexts.add(context)) {
-                    inProgressContexts.addAll(inheritance.getParents(context));
-                }
+    @Override
+    public CompletableFuture<BakedSubjectData> bake(CalculatedSubject data, Set<Entry<String, String>> activeContexts) {
+        final CompletableFuture<ContextSet> expandedContexts = data.getManager().getExpandedContexts(activeContexts);
+        if (expandedContexts.isDone() && !expandedContexts.isCompletedExceptionally()) {
+            BakedSubjectData ret = bakeSync(data, activeContexts, ContextCombinations.of(expandedContexts.join()));
+            if (ret != null) {
+                return CompletableFuture.completedFuture(ret);
             }
-            return ImmutableSet.copyOf(Combinations.of(contexts));
+        }
 
-        });
+        return expandedContexts.thenApply(ContextCombinations::of)
+                .thenCompose(processedContexts -> prefetch(data, processedContexts).thenCompose(none -> {
+                    // With the inheritance graph loaded, baking can usually complete synchronously in visit order
+                    BakedSubjectData ret = bakeSync(data, activeContexts, processedContexts);
+                    return ret != null ? CompletableFuture.completedFuture(ret) : bakeAsync(data, activeContexts, processedContexts);
+                }));
     }
 
-    @Override
-    public CompletableFuture<BakedSubjectData> bake(CalculatedSubject data, Set<Entry<String, String>> activeContexts) {
+    /**
+     * Bake data, walking the inheritance graph asynchronously one subject at a time.
+     *
+     * @param data The subject to bake
+     * @param activeContexts The contexts being baked for
+     * @param processedContexts The context combinations to include
+     * @return A future providing the baked data
+     */
+    private CompletableFuture<BakedSubjectData> bakeAsync(CalculatedSubject data, Set<Entry<String, String>> activeContexts, ContextCombinations processedContexts) {
         final Map.Entry<String, String> subject = data.getIdentifier();
-        return processContexts(data.getManager(), activeContexts)
-                .thenCompose(processedContexts -> {
-                    final BakeState state = new BakeState(data, processedContexts);
-
-                    final Multiset<Entry<String, String>> visitedSubjects = HashMultiset.create();
-                    CompletableFuture<Void> ret = visitSubject(state, subject, visitedSubjects, 0);
-                    Entry<String, String> defIdentifier = data.data().getCache().getDefaultIdentifier();
-                    if (!subject.equals(defIdentifier)) {
-                        visitSubject(state, defIdentifier, visitedSubjects, 1);
-                        visitSubject(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, PermissionsEx.SUBJECTS_DEFAULTS), visitedSubjects, 2); // Force in global defaults
-                    }
-                    return ret.thenApply(none -> state);
+        final BakeState state = new BakeState(data, activeContexts, processedContexts);
 
-                }).thenApply(state -> new BakedSubjectData(NodeTree.of(state.combinedPermissions, state.defaultValue), ImmutableList.copyOf(state.parents), ImmutableMap.copyOf(state.options)));
+        CompletableFuture<Void> ret = visitSubject(state, subject, ImmutableSet.of(), 0);
+        Entry<String, String> defIdentifier = data.data().getCache().getDefaultIdentifier();
+        if (!subject.equals(defIdentifier)) {
+            ret = ret.thenCompose(none -> visitSubject(state, defIdentifier, ImmutableSet.of(), 1))
+                    .thenCompose(none -> visitSubject(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, PermissionsEx.SUBJECTS_DEFAULTS), ImmutableSet.of(), 2)); // Force in global defaults
+        }
+        return ret.thenApply(none -> finish(state));
     }
 
-    private CompletableFuture<Void> visitSubject(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
-        if (visitedSubjects.count(subject) > CIRCULAR_INHERITANCE_THRESHOLD) {
-            state.pex.getLogger().warn(t("Potential circular inheritance found while traversing inheritance for %s when visiting %s", state.base.getIdentifier(), subject));
+    /**
+     * Load the data of every subject in the inheritance graph of a subject. The parents of each subject are loaded
+     * concurrently, continuing on the manager's bake executor.
+     *
+     * @param data The subject to load the inheritance graph of
+     * @param contexts The context combinations to follow parents in
+     * @return A future completing once every subject has been loaded
+     */
+    private CompletableFuture<Void> prefetch(CalculatedSubject data, ContextCombinations contexts) {
+        final Set<Entry<String, String>> visited = Sets.newConcurrentHashSet();
+        final Map.Entry<String, String> subject = data.getIdentifier();
+        final Entry<String, String> defIdentifier = data.data().getCache().getDefaultIdentifier();
+        if (subject.equals(defIdentifier)) {
+            return prefetchSubject(data.getManager(), contexts, subject, visited);
+        }
+        return CompletableFuture.allOf(prefetchSubject(data.getManager(), contexts, subject, visited),
+                prefetchSubject(data.getManager(), contexts, defIdentifier, visited),
+                prefetchSubject(data.getManager(), contexts, Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, PermissionsEx.SUBJECTS_DEFAULTS), visited));
+    }
+
+    private CompletableFuture<Void> prefetchSubject(PermissionsEx pex, ContextCombinations contexts, Map.Entry<String, String> subject, Set<Entry<String, String>> visited) {
+        if (!visited.add(subject)) {
             return Util.emptyFuture();
         }
-        visitedSubjects.add(subject);
-        SubjectType type = state.pex.getSubjects(subject.getKey());
-        return type.persistentData().getData(subject.getValue(), state.base).thenCombine(type.transientData().getData(subject.getValue(), state.base), (persistent, transientData) -> {
-            CompletableFuture<Void> ret = Util.emptyFuture();
-            for (Set<Entry<String, String>> combo : state.activeContexts) {
-                if (type.getTypeInfo().transientHasPriority()) {
-                    ret = visitSubjectSingle(state, transientData, ret, combo, visitedSubjects, inheritanceLevel);
-                    ret = visitSubjectSingle(state, persistent, ret, combo, visitedSubjects, inheritanceLevel);
-                } else {
-                    ret = visitSubjectSingle(state, persistent, ret, combo, visitedSubjects, inheritanceLevel);
-                    ret = visitSubjectSingle(state, transientData, ret, combo, visitedSubjects, inheritanceLevel);
+        final SubjectType type = pex.getSubjects(subject.getKey());
+        return type.persistentData().getData(subject.getValue(), null).thenCombineAsync(type.transientData().getData(subject.getValue(), null), (persistent, transientData) -> {
+            final List<CompletableFuture<Void>> parents = new ArrayList<>();
+            for (ImmutableSubjectData segmentData : new ImmutableSubjectData[] {persistent, transientData}) {
+                final BitSet segments = contexts.segmentsOf(segmentData);
+                for (int i = segments.nextSetBit(0); i >= 0; i = segments.nextSetBit(i + 1)) {
+                    for (Entry<String, String> parent : segmentData.getParents(contexts.get(i))) {
+                        parents.add(prefetchSubject(pex, contexts, parent, visited));
+                    }
                 }
             }
-            return ret;
-        }).thenCompose(res -> res);
+            return CompletableFuture.allOf(parents.toArray(new CompletableFuture<?>[parents.size()]));
+        }, pex.getBakeExecutor()).thenCompose(res -> res);
     }
 
-    private CompletableFuture<Void> visitSubjectSingle(BakeState state, ImmutableSubjectData data, CompletableFuture<Void> initial, Set<Entry<String, String>> activeCombo, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
-        initial = initial.thenRun(() -> visitSingle(state, data, activeCombo, inheritanceLevel));
-        for (Entry<String, String> parent : data.getParents(activeCombo)) {
-            initial = initial.thenCompose(none -> visitSubject(state, parent, visitedSubjects, inheritanceLevel + 1));
+    private static BakedSubjectData finish(BakeState state) {
+        final BakeRecord record;
+        synchronized (state.sources) {
+            record = new BakeRecord(state.sources, state.activeContexts);
         }
-        return initial;
+        state.base.recordBake(state.rawContexts, record);
+        return record.getResult();
     }
 
-    private void putPermIfNecessary(BakeState state, String perm, int val) {
-        Integer existing = state.combinedPermissions.get(perm);
-        if (existing == null || Math.abs(val) > Math.abs(existing)) {
-            state.combinedPermissions.put(perm, val);
+    /**
+     * Bake data on the calling thread, using only subject data that has already been loaded.
+     *
+     * @param data The subject to bake
+     * @param rawContexts The contexts being baked for
+     * @param processedContexts The context combinations to include
+     * @return The baked data, or null if any subject data in the inheritance graph is not loaded
+     */
+    private BakedSubjectData bakeSync(CalculatedSubject data, Set<Entry<String, String>> rawContexts, ContextCombinations processedContexts) {
+        final Map.Entry<String, String> subject = data.getIdentifier();
+        final BakeState state = new BakeState(data, rawContexts, processedContexts);
+        final Set<Entry<String, String>> path = new HashSet<>();
+        if (!visitSubjectSync(state, subject, path, 0)) {
+            return null;
         }
+        Entry<String, String> defIdentifier = data.data().getCache().getDefaultIdentifier();
+        if (!subject.equals(defIdentifier)) {
+            if (!visitSubjectSync(state, defIdentifier, path, 1)
+                    || !visitSubjectSync(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, PermissionsEx.SUBJECTS_DEFAULTS), path, 2)) {
+                return null;
+            }
+        }
+        return finish(state);
     }
 
-    private void visitSingle(BakeState state, ImmutableSubjectData data, Set<Entry<String, String>> specificCombination, int inheritanceLevel) {
-        for (Map.Entry<String, Integer> ent : data.getPermissions(specificCombination).entrySet()) {
-            String perm = ent.getKey();
-            if (ent.getKey().startsWith("#")) { // Prefix to exclude from inheritance
-                if (inheritanceLevel > 1) {
+    /**
+     * Visit a subject, unless it has already been visited.
+     *
+     * @param path The subjects whose parents are currently being visited, used to detect cycles
+     * @return Whether the subject's data was available
+     */
+    private boolean visitSubjectSync(BakeState state, Map.Entry<String, String> subject, Set<Entry<String, String>> path, int inheritanceLevel) {
+        if (path.contains(subject)) {
+            state.pex.getLogger().warn(t("Circular inheritance found while traversing inheritance for %s when visiting %s", state.base.getIdentifier(), subject));
+            state.cycleFound = true;
+            return true;
+        } else if (!state.visited.add(subject)) {
+            return true; // Already included through an earlier path
+        }
+
+        SubjectType type = state.pex.getSubjects(subject.getKey());
+        path.add(subject);
+        try {
+            if (inheritanceLevel > 0) {
+                return visitClosureSync(state, type, subject, path, inheritanceLevel);
+            }
+            return walkSubjectSync(state, type, subject, path, inheritanceLevel);
+        } finally {
+            path.remove(subject);
+        }
+    }
+
+    /**
+     * Add the flattened inheritance of an inherited subject, reusing a closure computed by an earlier bake if the
+     * data it was computed from is still current. Subjects in the closure that have already been visited through
+     * another path are skipped, so every subject contributes to the bake once. Closures that were cut short by circular
+     * inheritance depend on the path they were reached through, so they are not cached.
+     */
+    private boolean visitClosureSync(BakeState state, SubjectType type, Map.Entry<String, String> subject, Set<Entry<String, String>> path, int inheritanceLevel) {
+        final boolean inherited = inheritanceLevel > 1;
+        List<BakeRecord.Source> closure = type.getClosure(subject.getValue(), state.activeContexts.asSet(), inherited);
+        if (closure == null || !BakeRecord.isCurrent(closure)) {
+            final BakeState closureState = new BakeState(state.base, state.rawContexts, state.activeContexts);
+            closureState.visited.add(subject);
+            if (!walkSubjectSync(closureState, type, subject, path, inheritanceLevel)) {
+                return false;
+            }
+            closure = ImmutableList.copyOf(closureState.sources);
+            if (closureState.cycleFound) {
+                state.cycleFound = true;
+            } else {
+                type.putClosure(subject.getValue(), state.activeContexts.asSet(), inherited, closure);
+            }
+        }
+
+        final Set<Entry<String, String>> included = new HashSet<>();
+        for (BakeRecord.Source source : closure) {
+            final Entry<String, String> closureSubject = source.getSubject();
+            if (!included.contains(closureSubject)) {
+                if (!closureSubject.equals(subject) && !state.visited.add(closureSubject)) {
                     continue;
                 }
-                perm = perm.substring(1);
+                included.add(closureSubject);
+                state.pex.getSubjects(closureSubject.getKey()).addDependent(closureSubject.getValue(), state.base);
             }
+            state.sources.add(source.isInherited() && state.directParents.contains(closureSubject) ? source.withInherited(false) : source);
+        }
+        return true;
+    }
 
-            try {
-                for (String matched : Globs.parse(perm)) {
-                    putPermIfNecessary(state, matched, ent.getValue());
+    private boolean walkSubjectSync(BakeState state, SubjectType type, Map.Entry<String, String> subject, Set<Entry<String, String>> path, int inheritanceLevel) {
+        type.addDependent(subject.getValue(), state.base);
+        ImmutableSubjectData persistent = type.persistentData().getDataIfPresent(subject.getValue(), null);
+        ImmutableSubjectData transientData = type.transientData().getDataIfPresent(subject.getValue(), null);
+        if (persistent == null || transientData == null) {
+            return false;
+        }
+        if (inheritanceLevel == 0) {
+            addDirectParents(state, persistent);
+            addDirectParents(state, transientData);
+        }
+
+        final BitSet persistentSegments = state.activeContexts.segmentsOf(persistent);
+        final BitSet transientSegments = state.activeContexts.segmentsOf(transientData);
+        final BitSet combos = (BitSet) persistentSegments.clone();
+        combos.or(transientSegments);
+        for (int i = combos.nextSetBit(0); i >= 0; i = combos.nextSetBit(i + 1)) {
+            final Set<Entry<String, String>> combo = state.activeContexts.get(i);
+            if (type.getTypeInfo().transientHasPriority()) {
+                if ((transientSegments.get(i) && !visitSubjectSingleSync(state, type.transientData(), subject, transientData, combo, path, inheritanceLevel))
+                        || (persistentSegments.get(i) && !visitSubjectSingleSync(state, type.persistentData(), subject, persistent, combo, path, inheritanceLevel))) {
+                    return false;
+                }
+            } else {
+                if ((persistentSegments.get(i) && !visitSubjectSingleSync(state, type.persistentData(), subject, persistent, combo, path, inheritanceLevel))
+                        || (transientSegments.get(i) && !visitSubjectSingleSync(state, type.transientData(), subject, transientData, combo, path, inheritanceLevel))) {
+                    return false;
                 }
-            } catch (GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
-                putPermIfNecessary(state, perm, ent.getValue());
             }
         }
+        return true;
+    }
 
-        state.parents.addAll(data.getParents(specificCombination));
-        for (Map.Entry<String, String> ent : data.getOptions(specificCombination).entrySet()) {
-            if (!state.options.containsKey(ent.getKey())) {
-                state.options.put(ent.getKey(), ent.getValue());
+    private boolean visitSubjectSingleSync(BakeState state, SubjectCache cache, Map.Entry<String, String> subject, ImmutableSubjectData data, Set<Entry<String, String>> activeCombo, Set<Entry<String, String>> path, int inheritanceLevel) {
+        visitSingle(state, cache, subject, data, activeCombo, inheritanceLevel);
+        for (Entry<String, String> parent : data.getParents(activeCombo)) {
+            if (!visitSubjectSync(state, parent, path, inheritanceLevel + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<Void> visitSubject(BakeState state, Map.Entry<String, String> subject, Set<Entry<String, String>> path, int inheritanceLevel) {
+        if (path.contains(subject)) {
+            state.pex.getLogger().warn(t("Circular inheritance found while traversing inheritance for %s when visiting %s", state.base.getIdentifier(), subject));
+            return Util.emptyFuture();
+        } else if (!state.visited.add(subject)) {
+            return Util.emptyFuture(); // Already included through an earlier path
+        }
+        final Set<Entry<String, String>> subjectPath = ImmutableSet.<Entry<String, String>>builder().addAll(path).add(subject).build();
+        SubjectType type = state.pex.getSubjects(subject.getKey());
+        type.addDependent(subject.getValue(), state.base);
+        return type.persistentData().getData(subject.getValue(), null).thenCombine(type.transientData().getData(subject.getValue(), null), (persistent, transientData) -> {
+            if (inheritanceLevel == 0) {
+                addDirectParents(state, persistent);
+                addDirectParents(state, transientData);
+            }
+            CompletableFuture<Void> ret = Util.emptyFuture();
+            final BitSet persistentSegments = state.activeContexts.segmentsOf(persistent);
+            final BitSet transientSegments = state.activeContexts.segmentsOf(transientData);
+            final BitSet combos = (BitSet) persistentSegments.clone();
+            combos.or(transientSegments);
+            for (int i = combos.nextSetBit(0); i >= 0; i = combos.nextSetBit(i + 1)) {
+                final Set<Entry<String, String>> combo = state.activeContexts.get(i);
+                if (type.getTypeInfo().transientHasPriority()) {
+                    if (transientSegments.get(i)) {
+                        ret = visitSubjectSingle(state, type.transientData(), subject, transientData, ret, combo, subjectPath, inheritanceLevel);
+                    }
+                    if (persistentSegments.get(i)) {
+                        ret = visitSubjectSingle(state, type.persistentData(), subject, persistent, ret, combo, subjectPath, inheritanceLevel);
+                    }
+                } else {
+                    if (persistentSegments.get(i)) {
+                        ret = visitSubjectSingle(state, type.persistentData(), subject, persistent, ret, combo, subjectPath, inheritanceLevel);
+                    }
+                    if (transientSegments.get(i)) {
+                        ret = visitSubjectSingle(state, type.transientData(), subject, transientData, ret, combo, subjectPath, inheritanceLevel);
+                    }
+                }
             }
+            return ret;
+        }).thenCompose(res -> res);
+    }
+
+    private CompletableFuture<Void> visitSubjectSingle(BakeState state, SubjectCache cache, Map.Entry<String, String> subject, ImmutableSubjectData data, CompletableFuture<Void> initial, Set<Entry<String, String>> activeCombo, Set<Entry<String, String>> path, int inheritanceLevel) {
+        initial = initial.thenRun(() -> visitSingle(state, cache, subject, data, activeCombo, inheritanceLevel));
+        for (Entry<String, String> parent : data.getParents(activeCombo)) {
+            initial = initial.thenCompose(none -> visitSubject(state, parent, path, inheritanceLevel + 1));
         }
+        return initial;
+    }
 
-        if (Math.abs(data.getDefaultValue(specificCombination)) > Math.abs(state.defaultValue)) {
-            state.defaultValue = data.getDefaultValue(specificCombination);
+    /**
+     * Record the parents of the subject being baked. Permissions prefixed with '#' are included from direct parents
+     * even when those parents are first reached further up the inheritance tree.
+     */
+    private static void addDirectParents(BakeState state, ImmutableSubjectData data) {
+        final BitSet segments = state.activeContexts.segmentsOf(data);
+        for (int i = segments.nextSetBit(0); i >= 0; i = segments.nextSetBit(i + 1)) {
+            state.directParents.addAll(data.getParents(state.activeContexts.get(i)));
         }
     }
+
+    private void visitSingle(BakeState state, SubjectCache cache, Map.Entry<String, String> subject, ImmutableSubjectData data, Set<Entry<String, String>> specificCombination, int inheritanceLevel) {
+        final boolean inherited = inheritanceLevel > 1 && !state.directParents.contains(subject);
+        state.sources.add(new BakeRecord.Source(cache, subject.getValue(), data, specificCombination, inherited));
+    }
 }
@@ -17,39 +17,148 @@
 package ninja.leaping.permissionsex.subject;
 
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
+import ninja.leaping.permissionsex.data.Caching;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.util.CacheStatistics;
+import ninja.leaping.permissionsex.util.CacheStatsCounter;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Map.Entry;
 
 /**
  * Collection holding data defining a type of subject.
  */
 public class SubjectType {
+    private static final int MAX_CACHED_CLOSURES = 1024;
     private final PermissionsEx pex;
     private SubjectTypeDefinition type;
     private SubjectCache persistentData, transientData;
-    private final AsyncLoadingCache<String, CalculatedSubject> cache = Caffeine.newBuilder().buildAsync(((key, executor) -> {
-        CalculatedSubject subj = new CalculatedSubject(SubjectDataBaker.inheritance(), Maps.immutableEntry(type.getTypeName(), key), SubjectType.this);
-        return persistentData.getReference(key).thenCombine(transientData.getReference(key), (persistentRef, transientRef) -> {
-            subj.initialize(persistentRef, transientRef);
-            return subj;
-        });
-    }));
+    private final AsyncLoadingCache<String, CalculatedSubject> cache;
+    private final LongAdder staleDataServed = new LongAdder();
+    private final CacheStatsCounter subjectStats = new CacheStatsCounter(), bakedDataStats = new CacheStatsCounter();
+    /**
+     * Subjects whose baked data includes data from a subject of this type, by identifier of the inherited subject
+     */
+    private final ConcurrentMap<String, Set<CalculatedSubject>> dependents = new ConcurrentHashMap<>();
+    /**
+     * Listeners notifying dependents of changes to subjects of this type, by identifier of the inherited subject
+     */
+    private final ConcurrentMap<String, DependencyWatch> dependencyWatches = new ConcurrentHashMap<>();
+    /**
+     * The flattened inheritance of subjects of this type, as visited from an inheriting subject. Closures are shared
+     * between the bakes of all inheriting subjects, and are checked against current data whenever they are used.
+     */
+    private final Cache<ClosureKey, List<BakeRecord.Source>> closures = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_CLOSURES)
+            .build();
+
+    private static final class ClosureKey {
+        private final String identifier;
+        private final Set<Set<Entry<String, String>>> contexts;
+        private final boolean inherited;
+
+        private ClosureKey(String identifier, Set<Set<Entry<String, String>>> contexts, boolean inherited) {
+            this.identifier = identifier;
+            this.contexts = contexts;
+            this.inherited = inherited;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClosureKey)) return false;
+
+            ClosureKey that = (ClosureKey) o;
+            return this.inherited == that.inherited
+                    && this.identifier.equals(that.identifier)
+                    && this.contexts.equals(that.contexts);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = this.identifier.hashCode();
+            result = 31 * result + this.contexts.hashCode();
+            result = 31 * result + (this.inherited ? 1 : 0);
+            return result;
+        }
+    }
+
+    /**
+     * Forwards changes to the data of one subject to the subjects that depend on it.
+     */
+    private class DependencyWatch {
+        private final Caching<ImmutableSubjectData> persistentListener, transientListener;
+
+        private DependencyWatch(String identifier) {
+            this.persistentListener = newData -> notifyDependents(persistentData, identifier, newData);
+            this.transientListener = newData -> notifyDependents(transientData, identifier, newData);
+            persistentData.addListener(identifier, this.persistentListener);
+            transientData.addListener(identifier, this.transientListener);
+        }
+
+        private void close(String identifier) {
+            persistentData.removeListener(identifier, this.persistentListener);
+            transientData.removeListener(identifier, this.transientListener);
+        }
+    }
 
     public SubjectType(PermissionsEx pex, String type, SubjectCache persistentData, SubjectCache transientData) {
         this.pex = pex;
         this.type = SubjectTypeDefinition.defaultFor(type);
         this.persistentData = persistentData;
         this.transientData = transientData;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(getMaximumSubjects(pex.getConfig().getCaches()))
+                .recordStats(() -> this.subjectStats)
+                .buildAsync(((key, executor) -> {
+                    CalculatedSubject subj = new CalculatedSubject(SubjectDataBaker.inheritance(), Maps.immutableEntry(this.type.getTypeName(), key), SubjectType.this);
+                    return this.persistentData.getReference(key).thenCombine(this.transientData.getReference(key), (persistentRef, transientRef) -> {
+                        subj.initialize(persistentRef, transientRef);
+                        return subj;
+                    });
+                }));
+    }
+
+    private static long getMaximumSubjects(CacheConfiguration caches) {
+        return caches.getSubjects() == 0 ? Long.MAX_VALUE : caches.getSubjects();
+    }
+
+    /**
+     * Apply new bounds to the caches of this subject type. Caches are resized in place, keeping cached data where it
+     * fits. Persistent data is loaded again anyway when the data store is replaced by {@link #update(DataStore)},
+     * into a cache that uses these bounds.
+     *
+     * @param caches The cache configuration
+     */
+    public void updateCaches(CacheConfiguration caches) {
+        this.persistentData.updateCaches(caches);
+        this.transientData.updateCaches(caches);
+        this.cache.synchronous().policy().eviction().ifPresent(eviction -> eviction.setMaximum(getMaximumSubjects(caches)));
+        for (CalculatedSubject subject : getActiveSubjects()) {
+            subject.updateCaches(caches);
+        }
     }
 
     public void setTypeInfo(SubjectTypeDefinition def) {
@@ -77,6 +186,127 @@ public class SubjectType {
         persistentData.invalidate(identifier);
         transientData.invalidate(identifier);
         cache.synchronous().invalidate(identifier);
+        // Invalidating the data caches removes their listeners, so remaining dependents have to be watched again
+        this.dependents.compute(identifier, (key, existing) -> {
+            this.dependencyWatches.remove(identifier);
+            if (existing == null || existing.isEmpty()) {
+                return null;
+            }
+            this.dependencyWatches.put(identifier, new DependencyWatch(identifier));
+            return existing;
+        });
+    }
+
+    /**
+     * Record that the baked data of a subject includes data from a subject of this type. Subjects are not recorded
+     * as depending on themselves, since they hear of changes to their own data through their data references.
+     *
+     * @param identifier The identifier of the inherited subject
+     * @param dependent The subject whose baked data depends on the inherited subject
+     */
+    void addDependent(String identifier, CalculatedSubject dependent) {
+        if (dependent.getType() == this && dependent.getIdentifier().getValue().equals(identifier)) {
+            return;
+        }
+        // Watches are only changed while holding the entry for their subject, so a watch exists whenever dependents do
+        this.dependents.compute(identifier, (key, existing) -> {
+            if (existing == null) {
+                existing = Collections.newSetFromMap(new MapMaker().weakKeys().concurrencyLevel(4).makeMap());
+            }
+            this.dependencyWatches.computeIfAbsent(identifier, DependencyWatch::new);
+            existing.add(dependent);
+            return existing;
+        });
+    }
+
+    /**
+     * Get whether changes to a subject of this type are being forwarded to subjects inheriting from it.
+     *
+     * @param identifier The identifier of the subject
+     * @return Whether the subject has dependents being watched
+     */
+    boolean isWatched(String identifier) {
+        return this.dependents.containsKey(identifier) || this.dependencyWatches.containsKey(identifier);
+    }
+
+    /**
+     * Remove and return every recorded dependent of a subject. Dependents record themselves again when re-baked.
+     *
+     * @param identifier The identifier of the inherited subject
+     * @return The subjects whose baked data depended on the given subject
+     */
+    Set<CalculatedSubject> removeDependents(String identifier) {
+        Set<CalculatedSubject> ret = this.dependents.remove(identifier);
+        return ret == null ? Collections.emptySet() : ret;
+    }
+
+    /**
+     * Get the flattened inheritance of a subject of this type computed by an earlier bake. The closure may be outdated.
+     *
+     * @param identifier The identifier of the inherited subject
+     * @param contexts The context combinations the closure was computed for
+     * @param inherited Whether the subject was visited beyond the direct parents of the baked subject
+     * @return The closure, or null if none is cached
+     */
+    @Nullable
+    List<BakeRecord.Source> getClosure(String identifier, Set<Set<Entry<String, String>>> contexts, boolean inherited) {
+        return this.closures.getIfPresent(new ClosureKey(identifier, contexts, inherited));
+    }
+
+    void putClosure(String identifier, Set<Set<Entry<String, String>>> contexts, boolean inherited, List<BakeRecord.Source> closure) {
+        this.closures.put(new ClosureKey(identifier, contexts, inherited), closure);
+    }
+
+    /**
+     * Get the number of times a subject of this type answered a query with stale data, because its
+     * updated data was still being baked.
+     *
+     * @return The number of queries answered with stale data
+     */
+    public long getStaleDataServed() {
+        return this.staleDataServed.sum();
+    }
+
+    void onStaleDataServed() {
+        this.staleDataServed.increment();
+    }
+
+    CacheStatsCounter getBakedDataStats() {
+        return this.bakedDataStats;
+    }
+
+    /**
+     * Get statistics for each layer of caching for subjects of this type. The layers are, from the backend upwards,
+     * {@code persistent-data} and {@code transient-data} for raw subject data, {@code baked-data} for data
+     * calculated per context set, combined across all subjects, and {@code subjects} for the subjects themselves.
+     * Baked data shared between subjects counts towards the size and weight of {@code baked-data} once per subject
+     * holding it, so those overstate the memory used.
+     *
+     * @return Snapshots of the statistics, by layer
+     */
+    public Map<String, CacheStatistics> getCacheStatistics() {
+        return ImmutableMap.of(
+                "persistent-data", this.persistentData.getCacheStatistics(),
+                "transient-data", this.transientData.getCacheStatistics(),
+                "baked-data", CacheStatistics.of(this.bakedDataStats, Collections2.transform(getActiveSubjects(), CalculatedSubject::getBakedDataCache)),
+                "subjects", CacheStatistics.of(this.subjectStats, Collections.singleton(this.cache.synchronous())));
+    }
+
+    private void notifyDependents(SubjectCache cache, String identifier, ImmutableSubjectData newData) {
+        for (CalculatedSubject dependent : removeDependents(identifier)) {
+            dependent.inheritedDataChanged(this, cache, identifier, newData);
+        }
+        // Stop watching subjects that no dependent re-recorded itself for
+        this.dependents.compute(identifier, (key, existing) -> {
+            if (existing == null || existing.isEmpty()) {
+                final DependencyWatch watch = this.dependencyWatches.remove(identifier);
+                if (watch != null) {
+                    watch.close(identifier);
+                }
+                return null;
+            }
+            return existing;
+        });
     }
 
     public CompletableFuture<CalculatedSubject> get(String identifier) {
@@ -0,0 +1,135 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.base.Preconditions;
+
+/**
+ * A snapshot of the statistics of a cache layer, which may be made up of several caches sharing one {@link CacheStatsCounter}.
+ */
+public final class CacheStatistics {
+    private final CacheStats stats;
+    private final long[] loadTimes;
+    private final long size;
+    private final long weight;
+
+    private CacheStatistics(CacheStats stats, long[] loadTimes, long size, long weight) {
+        this.stats = stats;
+        this.loadTimes = loadTimes;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * Take a snapshot of the statistics of a group of caches.
+     *
+     * @param counter The statistics counter shared by the caches
+     * @param caches The caches to measure the size of
+     * @return The statistics
+     */
+    public static CacheStatistics of(CacheStatsCounter counter, Iterable<? extends Cache<?, ?>> caches) {
+        Preconditions.checkNotNull(counter, "counter");
+        long size = 0, weight = 0;
+        for (Cache<?, ?> cache : caches) {
+            final long cacheSize = cache.estimatedSize();
+            size += cacheSize;
+            weight += cache.policy().eviction()
+                    .map(eviction -> eviction.weightedSize().orElse(cacheSize))
+                    .orElse(cacheSize);
+        }
+        return new CacheStatistics(counter.snapshot(), counter.loadTimeSnapshot(), size, weight);
+    }
+
+    /**
+     * Get the hit, miss, load, and eviction counts.
+     *
+     * @return The Caffeine statistics
+     */
+    public CacheStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Get an approximate percentile of the time taken by loads.
+     *
+     * @param percentile The percentile, in the range [0, 1]
+     * @return The load time, in nanoseconds, or 0 if no loads have been recorded
+     */
+    public long getLoadTimePercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 1, "percentile must be in [0, 1]");
+        long total = 0;
+        for (long count : this.loadTimes) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < this.loadTimes.length; ++i) {
+            seen += this.loadTimes[i];
+            if (seen >= target) {
+                return CacheStatsCounter.bucketUpperBound(i);
+            }
+        }
+        throw new IllegalStateException("Load time histogram changed while being read");
+    }
+
+    /**
+     * Get the approximate number of entries held.
+     *
+     * @return The number of entries
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Get the total weight of the entries held. For caches bounded by entry count, this is the number of entries.
+     *
+     * @return The weight
+     */
+    public long getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Combine these statistics with those of another cache layer.
+     *
+     * @param other The other statistics
+     * @return The combined statistics
+     */
+    public CacheStatistics plus(CacheStatistics other) {
+        final long[] loadTimes = new long[this.loadTimes.length];
+        for (int i = 0; i < loadTimes.length; ++i) {
+            loadTimes[i] = this.loadTimes[i] + other.loadTimes[i];
+        }
+        return new CacheStatistics(this.stats.plus(other.stats), loadTimes, this.size + other.size, this.weight + other.weight);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "stats=" + stats +
+                ", size=" + size +
+                ", weight=" + weight +
+                '}';
+    }
+}
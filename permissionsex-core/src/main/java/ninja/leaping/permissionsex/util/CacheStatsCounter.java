@@ -0,0 +1,123 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A statistics counter for Caffeine caches that also keeps a histogram of load times, so percentiles can be reported.
+ * A single counter may be shared by several caches to aggregate their statistics.
+ *
+ * Load times are recorded into buckets with four buckets per power of two, so reported percentiles are accurate
+ * to within 25%.
+ */
+public final class CacheStatsCounter implements StatsCounter {
+    private static final int SUB_BUCKET_BITS = 2;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final AtomicLongArray loadTimes = new AtomicLongArray(BUCKET_COUNT);
+
+    @Override
+    public void recordHits(int count) {
+        this.hitCount.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        this.missCount.add(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTime) {
+        this.loadSuccessCount.increment();
+        this.totalLoadTime.add(loadTime);
+        this.loadTimes.incrementAndGet(bucketFor(loadTime));
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTime) {
+        this.loadFailureCount.increment();
+        this.totalLoadTime.add(loadTime);
+        this.loadTimes.incrementAndGet(bucketFor(loadTime));
+    }
+
+    @Override
+    @Deprecated
+    public void recordEviction() {
+        recordEviction(1);
+    }
+
+    @Override
+    public void recordEviction(int weight) {
+        this.evictionCount.increment();
+        this.evictionWeight.add(weight);
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return new CacheStats(this.hitCount.sum(), this.missCount.sum(), this.loadSuccessCount.sum(), this.loadFailureCount.sum(),
+                this.totalLoadTime.sum(), this.evictionCount.sum(), this.evictionWeight.sum());
+    }
+
+    /**
+     * Get a copy of the number of loads recorded in each bucket.
+     *
+     * @return The load time histogram
+     */
+    long[] loadTimeSnapshot() {
+        final long[] ret = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            ret[i] = this.loadTimes.get(i);
+        }
+        return ret;
+    }
+
+    static int bucketFor(long nanos) {
+        if (nanos < (1 << SUB_BUCKET_BITS)) {
+            return (int) Math.max(nanos, 0);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Get the greatest load time that falls into a bucket.
+     *
+     * @param bucket The bucket index
+     * @return The upper bound of the bucket, in nanoseconds
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < (1 << SUB_BUCKET_BITS)) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        final long lower = (long) ((1 << SUB_BUCKET_BITS) + (bucket & ((1 << SUB_BUCKET_BITS) - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
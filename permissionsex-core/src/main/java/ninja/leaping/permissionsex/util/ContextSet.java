@@ -0,0 +1,259 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable, interned set of context entries.
+ *
+ * Every context entry seen is assigned a bit in a process-wide registry, and a context set is stored as a bit mask
+ * over those entries. Hashing, equality and subset tests between context sets only compare masks, and the hash code
+ * is computed once. Context sets still implement the {@link Set} contract, so they are interchangeable with other
+ * sets of context entries.
+ *
+ * Bits are never released, so every context entry that has been seen stays registered.
+ */
+public final class ContextSet extends AbstractSet<Map.Entry<String, String>> {
+    private static final Interner<ContextSet> INTERNED = Interners.newWeakInterner();
+    private static final ConcurrentMap<Map.Entry<String, String>, Integer> ENTRY_IDS = new ConcurrentHashMap<>();
+    private static final Object LOCK = new Object();
+    @SuppressWarnings("unchecked")
+    private static volatile Map.Entry<String, String>[] entries = (Map.Entry<String, String>[]) new Map.Entry<?, ?>[64];
+    private static int nextId; // Guarded by LOCK
+
+    private static final ContextSet EMPTY = INTERNED.intern(new ContextSet(new long[0]));
+
+    private final long[] bits;
+    private final int size;
+    private final int hash;
+
+    private ContextSet(long[] bits) {
+        this.bits = bits;
+        final Map.Entry<String, String>[] entries = ContextSet.entries;
+        int size = 0;
+        int hash = 0;
+        for (int word = 0; word < bits.length; ++word) {
+            for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                hash += entries[word * Long.SIZE + Long.numberOfTrailingZeros(remaining)].hashCode();
+                ++size;
+            }
+        }
+        this.size = size;
+        this.hash = hash;
+    }
+
+    /**
+     * Get the empty context set.
+     *
+     * @return The empty context set
+     */
+    public static ContextSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Get the canonical context set containing the given entries.
+     *
+     * @param contexts The context entries
+     * @return The context set, which is the same instance for every equal set of entries
+     */
+    public static ContextSet of(Set<Map.Entry<String, String>> contexts) {
+        if (contexts instanceof ContextSet) {
+            return (ContextSet) contexts;
+        } else if (contexts.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] bits = new long[0];
+        for (Map.Entry<String, String> entry : contexts) {
+            final int id = idFor(entry);
+            final int word = id / Long.SIZE;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, word + 1);
+            }
+            bits[word] |= 1L << id;
+        }
+        return INTERNED.intern(new ContextSet(bits));
+    }
+
+    private static int idFor(Map.Entry<String, String> entry) {
+        Integer id = ENTRY_IDS.get(entry);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (LOCK) {
+            id = ENTRY_IDS.get(entry);
+            if (id != null) {
+                return id;
+            }
+            id = nextId++;
+            Map.Entry<String, String>[] entries = ContextSet.entries;
+            if (id >= entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            final Map.Entry<String, String> canonical = Maps.immutableEntry(entry.getKey(), entry.getValue());
+            entries[id] = canonical;
+            ContextSet.entries = entries;
+            ENTRY_IDS.put(canonical, id); // Published after the entry, so any id that can be found has an entry
+            return id;
+        }
+    }
+
+    /**
+     * Check whether every entry in this set is also in another set.
+     *
+     * @param other The potential superset
+     * @return Whether this set is a subset of {@code other}
+     */
+    public boolean isSubsetOf(ContextSet other) {
+        if (this.bits.length > other.bits.length) {
+            return false;
+        }
+        for (int i = 0; i < this.bits.length; ++i) {
+            if ((this.bits[i] & ~other.bits[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get every subset of this set. Larger subsets come first, starting with this set and ending with the empty set.
+     *
+     * @return The subsets of this set
+     */
+    public List<ContextSet> subsets() {
+        final int[] ids = new int[this.size];
+        int count = 0;
+        for (int word = 0; word < this.bits.length; ++word) {
+            for (long remaining = this.bits[word]; remaining != 0; remaining &= remaining - 1) {
+                ids[count++] = word * Long.SIZE + Long.numberOfTrailingZeros(remaining);
+            }
+        }
+        if (count >= Integer.SIZE - 1) {
+            throw new IllegalStateException("Too many contexts to enumerate subsets of: " + count);
+        }
+
+        final ImmutableList.Builder<ContextSet> ret = ImmutableList.builder();
+        final int limit = 1 << count;
+        for (int subsetSize = count; subsetSize > 0; --subsetSize) {
+            // Visit each selection of subsetSize entries in increasing order of selection mask
+            int selection = (1 << subsetSize) - 1;
+            while (selection < limit) {
+                ret.add(select(ids, selection));
+                final int lowest = selection & -selection;
+                final int ripple = selection + lowest;
+                selection = (((ripple ^ selection) >>> 2) / lowest) | ripple;
+            }
+        }
+        return ret.add(EMPTY).build();
+    }
+
+    private ContextSet select(int[] ids, int selection) {
+        final long[] bits = new long[this.bits.length];
+        int maxWord = -1;
+        for (int i = 0; i < ids.length; ++i) {
+            if ((selection & (1 << i)) != 0) {
+                final int word = ids[i] / Long.SIZE;
+                bits[word] |= 1L << ids[i];
+                maxWord = Math.max(maxWord, word);
+            }
+        }
+        return INTERNED.intern(new ContextSet(maxWord + 1 == bits.length ? bits : Arrays.copyOf(bits, maxWord + 1)));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry)) {
+            return false;
+        }
+        final Integer id = ENTRY_IDS.get(o);
+        return id != null && id / Long.SIZE < this.bits.length && (this.bits[id / Long.SIZE] & (1L << id)) != 0;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (c instanceof ContextSet) {
+            return ((ContextSet) c).isSubsetOf(this);
+        }
+        return super.containsAll(c);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        final Map.Entry<String, String>[] entries = ContextSet.entries;
+        return new Iterator<Map.Entry<String, String>>() {
+            private int word;
+            private long remaining = bits.length > 0 ? bits[0] : 0;
+
+            @Override
+            public boolean hasNext() {
+                while (this.remaining == 0 && this.word + 1 < bits.length) {
+                    this.remaining = bits[++this.word];
+                }
+                return this.remaining != 0;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int id = this.word * Long.SIZE + Long.numberOfTrailingZeros(this.remaining);
+                this.remaining &= this.remaining - 1;
+                return entries[id];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o instanceof ContextSet) {
+            final ContextSet that = (ContextSet) o;
+            return this.hash == that.hash && Arrays.equals(this.bits, that.bits);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
@@ -17,30 +17,75 @@
 package ninja.leaping.permissionsex.util;
 
 import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.util.glob.GlobNode;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.regex.Pattern;
 
 /**
  * An immutable tree structure for determining node data. Any changes will create new copies of the necessary tree objects.
  * Keys are case-insensitive.
  * Segments of nodes are split by the '.' character
+ *
+ * The tree is stored in a compiled form: every node is an index into a set of parallel arrays, laid out breadth-first
+ * so that the children of any node are contiguous and sorted by the id of their segment. Segment ids are assigned by
+ * the global {@link PermissionDictionary}, so no per-tree name table is needed to look up nodes.
+ *
+ * Besides literal nodes, a tree may hold glob patterns, which are matched against the queried node at lookup time
+ * instead of being expanded into every node they match. Where several values apply to the same node, the one with
+ * the greatest magnitude is used, with ties going to the value that was added first.
  */
 public class NodeTree {
     public static final int PERMISSION_UNDEFINED = 0;
+    private static final int ROOT = 0;
 
     private static final Pattern SPLIT_REGEX = Pattern.compile("\\.");
-    private final Node rootNode;
-
-
-    private NodeTree(int value) {
-        this.rootNode = new Node(new HashMap<>());
-        this.rootNode.value = value;
-    }
+    private static final Comparator<PermissionDictionary.Segment> SEGMENT_ORDER = Comparator.comparingInt(PermissionDictionary.Segment::getId);
+    private static final ThreadLocal<PatternScratch> PATTERN_SCRATCH = ThreadLocal.withInitial(PatternScratch::new);
+    private static final Comparator<Map.Entry<GlobNode, PatternEntry>> PATTERN_ORDER = Comparator.comparing(ent -> ent.getKey().toString());
+    /**
+     * The distinct segments contained in this tree, sorted by id. Holding these keeps their ids assigned.
+     */
+    private final PermissionDictionary.Segment[] segmentsById;
+    /**
+     * The children of node {@code i} are the nodes in the range {@code [childStart[i], childStart[i + 1])}.
+     */
+    private final int[] childStart;
+    /**
+     * The segment id each node is keyed by. The root node has no segment.
+     */
+    private final int[] segments;
+    private final int[] values;
+    /**
+     * The order in which the value of each node was set, used to break ties with patterns. Null if there are no patterns.
+     */
+    private final int[] sequences;
+    private final GlobNode[] patterns;
+    private final int[] patternValues;
+    private final int[] patternSequences;
+    private int hash;
 
-    private NodeTree(Node rootNode) {
-        this.rootNode = rootNode;
+    private NodeTree(PermissionDictionary.Segment[] segmentsById, int[] childStart, int[] segments, int[] values, int[] sequences,
+                     GlobNode[] patterns, int[] patternValues, int[] patternSequences) {
+        this.segmentsById = segmentsById;
+        this.childStart = childStart;
+        this.segments = segments;
+        this.values = values;
+        this.sequences = sequences;
+        this.patterns = patterns;
+        this.patternValues = patternValues;
+        this.patternSequences = patternSequences;
     }
 
     /**
@@ -61,45 +106,195 @@ public class NodeTree {
      * @return The newly created node tree
      */
     public static NodeTree of(Map<String, Integer> values, int defaultValue) {
-        NodeTree newTree = new NodeTree(defaultValue);
-        for (Map.Entry<String, Integer> value : values.entrySet()) {
-            String[] parts = SPLIT_REGEX.split(value.getKey().toLowerCase());
-            Node currentNode = newTree.rootNode;
-            for (String part : parts) {
-                if (currentNode.children.containsKey(part)) {
-                    currentNode = currentNode.children.get(part);
-                } else {
-                    Node newNode = new Node(new HashMap<>());
-                    currentNode.children.put(part, newNode);
-                    currentNode = newNode;
-                }
+        return builder().setDefaultValue(defaultValue).putAll(values).build();
+    }
+
+    /**
+     * Create a new builder for an empty node tree, with a default value of UNDEFINED.
+     *
+     * @return The new builder
+     */
+    public static Builder builder() {
+        return new Builder(new Node(), new LinkedHashMap<>(), 0);
+    }
+
+    /**
+     * Create a new builder initially containing the values of this tree.
+     *
+     * @return The new builder
+     */
+    public Builder toBuilder() {
+        Map<GlobNode, PatternEntry> patterns = new LinkedHashMap<>();
+        int nextSequence = 0;
+        for (int i = 0; i < this.patterns.length; ++i) {
+            patterns.put(this.patterns[i], new PatternEntry(this.patternValues[i], this.patternSequences[i]));
+            nextSequence = Math.max(nextSequence, this.patternSequences[i] + 1);
+        }
+        if (this.sequences != null) {
+            for (int sequence : this.sequences) {
+                nextSequence = Math.max(nextSequence, sequence + 1);
             }
-            currentNode.value = value.getValue();
         }
-        return newTree;
+        return new Builder(decompile(), patterns, nextSequence);
     }
 
     /**
      * Returns the value assigned to a specific node, or the nearest parent value in the tree if the node itself is undefined.
      *
+     * The node is read in place, without any intermediate copies being made.
+     *
      * @param node The path to get the node value at
      * @return The tristate value for the given node
      */
-    public int get(String node) {
-        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
-        Node currentNode = this.rootNode;
-        int lastUndefinedVal = this.rootNode.value;
-        for (String str : parts) {
-            if (!currentNode.children.containsKey(str)) {
+    public int get(CharSequence node) {
+        int currentNode = ROOT;
+        int lastUndefinedVal = this.values[ROOT];
+        int end = node.length();
+        while (end > 0 && node.charAt(end - 1) == '.') { // Trailing empty segments are ignored
+            if (--end == 0) {
+                return lastUndefinedVal;
+            }
+        }
+
+        if (this.patterns.length > 0) {
+            return getWithPatterns(node, end);
+        }
+
+        int segmentStart = 0;
+        do {
+            int segmentEnd = segmentStart;
+            while (segmentEnd < end && node.charAt(segmentEnd) != '.') {
+                ++segmentEnd;
+            }
+            int segment = PermissionDictionary.findSegmentId(node, segmentStart, segmentEnd);
+            if (segment < 0) {
+                break;
+            }
+            currentNode = findChild(currentNode, segment);
+            if (currentNode < 0) {
                 break;
             }
-            currentNode = currentNode.children.get(str);
-            if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
-                lastUndefinedVal = currentNode.value;
+            if (Math.abs(this.values[currentNode]) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = this.values[currentNode];
             }
+            segmentStart = segmentEnd + 1;
+        } while (segmentStart <= end);
+        return lastUndefinedVal;
+    }
+
+    /**
+     * Look up a node in a tree that contains patterns. Each prefix of the node is given the strongest of the literal
+     * value and the values of any patterns matching that prefix exactly.
+     *
+     * @param node The path to get the node value at
+     * @param end The length of the path, excluding trailing empty segments
+     * @return The tristate value for the given node
+     */
+    private int getWithPatterns(CharSequence node, int end) {
+        final PatternScratch scratch = PATTERN_SCRATCH.get();
+        scratch.reset(node, end);
+        try {
+            for (int i = 0; i < this.patterns.length; ++i) {
+                scratch.value = this.patternValues[i];
+                scratch.sequence = this.patternSequences[i];
+                this.patterns[i].matchPrefixesIgnoreCase(node, end, scratch);
+            }
+        } finally {
+            scratch.node = null;
         }
+
+        final int[] prefixValues = scratch.prefixValues, prefixSequences = scratch.prefixSequences;
+        int currentNode = ROOT;
+        int lastUndefinedVal = this.values[ROOT];
+        int segmentStart = 0;
+        do {
+            int segmentEnd = segmentStart;
+            while (segmentEnd < end && node.charAt(segmentEnd) != '.') {
+                ++segmentEnd;
+            }
+            int value = prefixValues[segmentEnd];
+            if (currentNode >= 0) {
+                int segment = PermissionDictionary.findSegmentId(node, segmentStart, segmentEnd);
+                currentNode = segment < 0 ? -1 : findChild(currentNode, segment);
+                if (currentNode >= 0 && isStronger(this.values[currentNode], this.sequences[currentNode], value, prefixSequences[segmentEnd])) {
+                    value = this.values[currentNode];
+                }
+            }
+            if (Math.abs(value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = value;
+            }
+            segmentStart = segmentEnd + 1;
+        } while (segmentStart <= end);
         return lastUndefinedVal;
+    }
+
+    /**
+     * Per-thread state for looking up nodes in trees with patterns, so that lookups do not allocate. Receives the
+     * prefixes of the node matched by the pattern currently being checked.
+     */
+    private static final class PatternScratch implements IntConsumer {
+        private int[] prefixValues = new int[64];
+        private int[] prefixSequences = new int[64];
+        private CharSequence node;
+        private int end;
+        private int value, sequence;
+
+        private void reset(CharSequence node, int end) {
+            if (this.prefixValues.length <= end) {
+                final int length = Math.max(end + 1, this.prefixValues.length * 2);
+                this.prefixValues = new int[length];
+                this.prefixSequences = new int[length];
+            }
+            Arrays.fill(this.prefixValues, 0, end + 1, 0);
+            Arrays.fill(this.prefixSequences, 0, end + 1, Integer.MAX_VALUE);
+            this.node = node;
+            this.end = end;
+        }
+
+        @Override
+        public void accept(int matchEnd) {
+            if (matchEnd > 0 && (matchEnd == this.end || this.node.charAt(matchEnd) == '.')
+                    && isStronger(this.value, this.sequence, this.prefixValues[matchEnd], this.prefixSequences[matchEnd])) {
+                this.prefixValues[matchEnd] = this.value;
+                this.prefixSequences[matchEnd] = this.sequence;
+            }
+        }
+    }
 
+    private static boolean isStronger(int value, int sequence, int existingValue, int existingSequence) {
+        return Math.abs(value) > Math.abs(existingValue)
+                || (Math.abs(value) == Math.abs(existingValue) && sequence < existingSequence);
+    }
+
+    private int findChild(int node, int segment) {
+        int ret = Arrays.binarySearch(this.segments, this.childStart[node], this.childStart[node + 1], segment);
+        return ret < 0 ? -1 : ret;
+    }
+
+    private PermissionDictionary.Segment segment(int segment) {
+        int low = 0;
+        int high = this.segmentsById.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            PermissionDictionary.Segment midSegment = this.segmentsById[mid];
+            if (midSegment.getId() < segment) {
+                low = mid + 1;
+            } else if (midSegment.getId() > segment) {
+                high = mid - 1;
+            } else {
+                return midSegment;
+            }
+        }
+        throw new IllegalStateException("Segment " + segment + " is not part of this tree");
+    }
+
+    /**
+     * Get the number of nodes and patterns in this tree, including nodes without a value of their own.
+     *
+     * @return The size of this tree
+     */
+    public int getNodeCount() {
+        return this.segments.length + this.patterns.length;
     }
 
     /**
@@ -108,19 +303,73 @@ public class NodeTree {
      * @return An immutable map representation of the nodes defined in this tree
      */
     public Map<String, Integer> asMap() {
+        if (this.patterns.length > 0) {
+            return asMapWithPatterns();
+        }
         ImmutableMap.Builder<String, Integer> ret = ImmutableMap.builder();
-        for (Map.Entry<String, Node> ent : this.rootNode.children.entrySet()) {
-            populateMap(ret, ent.getKey(), ent.getValue());
+        for (int child = this.childStart[ROOT]; child < this.childStart[ROOT + 1]; ++child) {
+            populateMap(ret, segment(this.segments[child]).getName(), child);
         }
         return ret.build();
     }
 
-    private void populateMap(ImmutableMap.Builder<String, Integer> values, String prefix, Node currentNode) {
-        if (currentNode.value != 0) {
-            values.put(prefix, currentNode.value);
+    /**
+     * Convert a tree containing patterns into a map, expanding every pattern into the nodes it matches.
+     *
+     * @return An immutable map representation of the nodes defined in this tree
+     */
+    private Map<String, Integer> asMapWithPatterns() {
+        final Map<String, int[]> merged = new LinkedHashMap<>(); // Node to {value, sequence}
+        for (int child = this.childStart[ROOT]; child < this.childStart[ROOT + 1]; ++child) {
+            populateMerged(merged, segment(this.segments[child]).getName(), child);
+        }
+        for (int i = 0; i < this.patterns.length; ++i) {
+            for (String expanded : this.patterns[i]) {
+                final int[] pattern = {this.patternValues[i], this.patternSequences[i]};
+                merged.merge(normalize(expanded), pattern, (existing, added) -> isStronger(added[0], added[1], existing[0], existing[1]) ? added : existing);
+            }
+        }
+
+        ImmutableMap.Builder<String, Integer> ret = ImmutableMap.builder();
+        for (Map.Entry<String, int[]> ent : merged.entrySet()) {
+            if (ent.getValue()[0] != 0) {
+                ret.put(ent.getKey(), ent.getValue()[0]);
+            }
+        }
+        return ret.build();
+    }
+
+    private void populateMerged(Map<String, int[]> values, String prefix, int currentNode) {
+        values.put(prefix, new int[] {this.values[currentNode], this.sequences[currentNode]});
+        for (int child = this.childStart[currentNode]; child < this.childStart[currentNode + 1]; ++child) {
+            populateMerged(values, prefix + '.' + segment(this.segments[child]).getName(), child);
+        }
+    }
+
+    /**
+     * Convert a node path to the form used for keys of {@link #asMap()}.
+     *
+     * @param node The node path
+     * @return The lowercased path, without trailing empty segments
+     */
+    private static String normalize(String node) {
+        int end = node.length();
+        while (end > 0 && node.charAt(end - 1) == '.') {
+            --end;
+        }
+        final char[] ret = new char[end];
+        for (int i = 0; i < end; ++i) {
+            ret[i] = Character.toLowerCase(node.charAt(i));
+        }
+        return new String(ret);
+    }
+
+    private void populateMap(ImmutableMap.Builder<String, Integer> values, String prefix, int currentNode) {
+        if (this.values[currentNode] != 0) {
+            values.put(prefix, this.values[currentNode]);
         }
-        for (Map.Entry<String, Node> ent : currentNode.children.entrySet()) {
-            populateMap(values, prefix + '.' + ent.getKey(), ent.getValue());
+        for (int child = this.childStart[currentNode]; child < this.childStart[currentNode + 1]; ++child) {
+            populateMap(values, prefix + '.' + segment(this.segments[child]).getName(), child);
         }
     }
 
@@ -132,21 +381,9 @@ public class NodeTree {
      * @return The new, modified node tree
      */
     public NodeTree withValue(String node, int value) {
-        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
-        Node newRoot = new Node(new HashMap<>(this.rootNode.children));
-        Node newPtr = newRoot;
-        Node currentPtr = this.rootNode;
-
-        newPtr.value = currentPtr == null ? 0 : currentPtr.value;
-        for (String part : parts) {
-            Node oldChild = currentPtr == null ? null : currentPtr.children.get(part);
-            Node newChild = new Node(oldChild != null ? new HashMap<>(oldChild.children) : new HashMap<String, Node>());
-            newPtr.children.put(part, newChild);
-            currentPtr = oldChild;
-            newPtr = newChild;
-        }
-        newPtr.value = value;
-        return new NodeTree(newRoot);
+        Builder builder = toBuilder();
+        builder.root.replace(node, value, builder.nextSequence++);
+        return builder.build();
     }
 
     /**
@@ -156,20 +393,368 @@ public class NodeTree {
      * @return The new node tree
      */
     public NodeTree withAll(Map<String, Integer> values) {
-        NodeTree ret = this;
+        Builder builder = toBuilder();
         for (Map.Entry<String, Integer> ent : values.entrySet()) {
-            ret = ret.withValue(ent.getKey(), ent.getValue());
+            builder.root.replace(ent.getKey(), ent.getValue(), builder.nextSequence++);
         }
-        return ret;
+        return builder.build();
     }
 
-    private static class Node {
+    /**
+     * Compare node trees structurally. Two trees are equal if they contain the same nodes and patterns with the same
+     * values, and have the same default value. The order values were set in only matters where it decides between
+     * values of equal magnitude and opposite sign.
+     *
+     * @param o The object to compare to
+     * @return Whether the two trees are equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NodeTree)) return false;
+
+        NodeTree that = (NodeTree) o;
+        // Compiled trees are canonical, so equal contents produce equal arrays
+        return hashCode() == that.hashCode()
+                && Arrays.equals(this.values, that.values)
+                && Arrays.equals(this.segments, that.segments)
+                && Arrays.equals(this.childStart, that.childStart)
+                && Arrays.equals(this.sequences, that.sequences)
+                && Arrays.equals(this.patterns, that.patterns)
+                && Arrays.equals(this.patternValues, that.patternValues)
+                && Arrays.equals(this.patternSequences, that.patternSequences);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = this.hash;
+        if (result == 0) {
+            result = Arrays.hashCode(this.childStart);
+            result = 31 * result + Arrays.hashCode(this.segments);
+            result = 31 * result + Arrays.hashCode(this.values);
+            result = 31 * result + Arrays.hashCode(this.sequences);
+            result = 31 * result + Arrays.hashCode(this.patterns);
+            result = 31 * result + Arrays.hashCode(this.patternValues);
+            result = 31 * result + Arrays.hashCode(this.patternSequences);
+            this.hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeTree{" +
+                "default=" + this.values[ROOT] +
+                ", nodes=" + asMap() +
+                '}';
+    }
+
+    /**
+     * Flatten a tree of mutable nodes into its compiled form. Nodes that have no values set in their subtree are
+     * dropped, since they can not affect the result of any query.
+     *
+     * @param root The root of the tree to compile
+     * @param patternEntries The patterns contained in the tree
+     * @return A new node tree
+     */
+    private static NodeTree compile(Node root, Map<GlobNode, PatternEntry> patternEntries) {
+        root.prune();
+        Set<PermissionDictionary.Segment> distinctSegments = new HashSet<>();
+        int nodeCount = root.collect(distinctSegments) + 1;
+        PermissionDictionary.Segment[] segmentsById = distinctSegments.toArray(new PermissionDictionary.Segment[distinctSegments.size()]);
+        Arrays.sort(segmentsById, SEGMENT_ORDER);
+
+        int[] childStart = new int[nodeCount + 1];
+        int[] segments = new int[nodeCount];
+        int[] values = new int[nodeCount];
+        int[] sequences = patternEntries.isEmpty() ? null : new int[nodeCount];
+        segments[ROOT] = -1;
+        values[ROOT] = root.value;
+
+        Queue<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        int nextIndex = ROOT + 1;
+        for (int i = 0; i < nodeCount; ++i) {
+            Node node = queue.remove();
+            childStart[i] = nextIndex;
+            List<PermissionDictionary.Segment> childSegments = new ArrayList<>(node.children.keySet());
+            childSegments.sort(SEGMENT_ORDER);
+            for (PermissionDictionary.Segment childSegment : childSegments) {
+                Node child = node.children.get(childSegment);
+                segments[nextIndex] = childSegment.getId();
+                values[nextIndex] = child.value;
+                if (sequences != null) {
+                    sequences[nextIndex] = child.sequence;
+                }
+                queue.add(child);
+                ++nextIndex;
+            }
+        }
+        childStart[nodeCount] = nextIndex;
 
-        private final Map<String, Node> children;
+        List<Map.Entry<GlobNode, PatternEntry>> sortedPatterns = new ArrayList<>(patternEntries.entrySet());
+        sortedPatterns.sort(PATTERN_ORDER);
+        GlobNode[] patterns = new GlobNode[sortedPatterns.size()];
+        int[] patternValues = new int[patterns.length];
+        int[] patternSequences = new int[patterns.length];
+        for (int i = 0; i < patterns.length; ++i) {
+            Map.Entry<GlobNode, PatternEntry> ent = sortedPatterns.get(i);
+            patterns[i] = ent.getKey();
+            patternValues[i] = ent.getValue().value;
+            patternSequences[i] = ent.getValue().sequence;
+        }
+        if (sequences != null) {
+            canonicalizeSequences(values, sequences, patternValues, patternSequences);
+        }
+        return new NodeTree(segmentsById, childStart, segments, values, sequences, patterns, patternValues, patternSequences);
+    }
+
+    /**
+     * Reduce the sequences of a compiled tree to the order of the values they can break ties between, so that trees
+     * with the same contents compile to the same arrays whatever order their values were set in. Sequences only
+     * decide between values of equal magnitude and opposite sign, so every other value is given sequence 0, and the
+     * remaining sequences are replaced by their rank.
+     *
+     * @param values The values of literal nodes
+     * @param sequences The sequences of literal nodes, modified in place
+     * @param patternValues The values of patterns
+     * @param patternSequences The sequences of patterns, modified in place
+     */
+    private static void canonicalizeSequences(int[] values, int[] sequences, int[] patternValues, int[] patternSequences) {
+        final Set<Integer> positive = new HashSet<>(), negative = new HashSet<>();
+        for (int i = ROOT + 1; i < values.length; ++i) {
+            (values[i] > 0 ? positive : negative).add(Math.abs(values[i]));
+        }
+        for (int value : patternValues) {
+            (value > 0 ? positive : negative).add(Math.abs(value));
+        }
+        positive.retainAll(negative); // Magnitudes set with both signs
+
+        final int[] tied = new int[values.length + patternValues.length];
+        int tiedCount = 0;
+        for (int i = ROOT + 1; i < values.length; ++i) {
+            if (positive.contains(Math.abs(values[i]))) {
+                tied[tiedCount++] = sequences[i];
+            }
+        }
+        for (int i = 0; i < patternValues.length; ++i) {
+            if (positive.contains(Math.abs(patternValues[i]))) {
+                tied[tiedCount++] = patternSequences[i];
+            }
+        }
+        Arrays.sort(tied, 0, tiedCount);
+
+        sequences[ROOT] = 0;
+        for (int i = ROOT + 1; i < values.length; ++i) {
+            sequences[i] = positive.contains(Math.abs(values[i])) ? Arrays.binarySearch(tied, 0, tiedCount, sequences[i]) : 0;
+        }
+        for (int i = 0; i < patternValues.length; ++i) {
+            patternSequences[i] = positive.contains(Math.abs(patternValues[i])) ? Arrays.binarySearch(tied, 0, tiedCount, patternSequences[i]) : 0;
+        }
+    }
+
+    /**
+     * Expand this tree back into mutable nodes, to be modified and recompiled.
+     *
+     * @return The root of the expanded tree
+     */
+    private Node decompile() {
+        Node root = new Node();
+        decompile(ROOT, root);
+        return root;
+    }
+
+    private void decompile(int index, Node target) {
+        target.value = this.values[index];
+        if (this.sequences != null) {
+            target.sequence = this.sequences[index];
+        }
+        for (int child = this.childStart[index]; child < this.childStart[index + 1]; ++child) {
+            Node childNode = new Node();
+            target.children.put(segment(this.segments[child]), childNode);
+            decompile(child, childNode);
+        }
+    }
+
+    /**
+     * A mutable tree of values, which applies any number of changes in place and is compiled into an immutable
+     * {@link NodeTree} once all changes have been made. Builders are not thread-safe.
+     */
+    public static final class Builder {
+        private final Node root;
+        private final Map<GlobNode, PatternEntry> patterns;
+        private int nextSequence;
+
+        private Builder(Node root, Map<GlobNode, PatternEntry> patterns, int nextSequence) {
+            this.root = root;
+            this.patterns = patterns;
+            this.nextSequence = nextSequence;
+        }
+
+        /**
+         * Set the fallback value for any completely undefined nodes.
+         *
+         * @param defaultValue The default value
+         * @return this
+         */
+        public Builder setDefaultValue(int defaultValue) {
+            this.root.value = defaultValue;
+            return this;
+        }
+
+        /**
+         * Set the value at a node.
+         *
+         * @param node The node path to set the value of
+         * @param value The value to set, or UNDEFINED to remove
+         * @return this
+         */
+        public Builder put(String node, int value) {
+            Node target = this.root.lookup(node);
+            target.value = value;
+            target.sequence = this.nextSequence++;
+            return this;
+        }
+
+        /**
+         * Set the value at a node, unless a value with an equal or greater magnitude is already set there.
+         *
+         * @param node The node path to set the value of
+         * @param value The value to set
+         * @return this
+         */
+        public Builder putIfStronger(String node, int value) {
+            Node target = this.root.lookup(node);
+            if (Math.abs(value) > Math.abs(target.value)) {
+                target.value = value;
+                target.sequence = this.nextSequence++;
+            }
+            return this;
+        }
+
+        /**
+         * Set the value at every node matched by a glob, except for nodes where a value with an equal or greater
+         * magnitude is already set. Globs are not expanded, but matched against nodes when the tree is queried.
+         *
+         * @param glob The glob matching nodes to set the value of
+         * @param value The value to set
+         * @return this
+         */
+        public Builder putIfStronger(GlobNode glob, int value) {
+            String literal = glob.getLiteral();
+            if (literal != null) {
+                return putIfStronger(literal, value);
+            }
+
+            PatternEntry existing = this.patterns.get(glob);
+            if (existing == null) {
+                this.patterns.put(glob, new PatternEntry(value, this.nextSequence++));
+            } else if (Math.abs(value) > Math.abs(existing.value)) {
+                existing.value = value;
+                existing.sequence = this.nextSequence++;
+            }
+            return this;
+        }
+
+        /**
+         * Set the values of every node in a map.
+         *
+         * @param values The values to set
+         * @return this
+         */
+        public Builder putAll(Map<String, Integer> values) {
+            for (Map.Entry<String, Integer> ent : values.entrySet()) {
+                put(ent.getKey(), ent.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Create an immutable tree containing the values currently set in this builder.
+         * The builder may continue to be modified afterwards without affecting the returned tree.
+         *
+         * @return The new node tree
+         */
+        public NodeTree build() {
+            return compile(this.root, this.patterns);
+        }
+    }
+
+    /**
+     * The value of a pattern held by a builder
+     */
+    private static class PatternEntry {
+        private int value;
+        private int sequence;
+
+        private PatternEntry(int value, int sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A mutable node, only used while building a tree.
+     */
+    private static class Node {
+        private final Map<PermissionDictionary.Segment, Node> children = new HashMap<>();
         private int value = 0;
+        private int sequence = 0;
+
+        /**
+         * Get the node at a path, creating any missing nodes along the way.
+         *
+         * @param node The path to get
+         * @return The node at the path
+         */
+        private Node lookup(String node) {
+            Node currentNode = this;
+            for (String part : SPLIT_REGEX.split(node)) {
+                currentNode = currentNode.children.computeIfAbsent(PermissionDictionary.segment(part), k -> new Node());
+            }
+            return currentNode;
+        }
 
-        private Node(Map<String, Node> children) {
-            this.children = children;
+        /**
+         * Set the value at a path, with the values of any intermediate nodes on the path being reset.
+         *
+         * @param node The path to set
+         * @param value The value to set
+         * @param sequence The order in which the value was set
+         */
+        private void replace(String node, int value, int sequence) {
+            Node currentNode = this;
+            for (String part : SPLIT_REGEX.split(node)) {
+                currentNode = currentNode.children.computeIfAbsent(PermissionDictionary.segment(part), k -> new Node());
+                currentNode.value = 0;
+            }
+            currentNode.value = value;
+            currentNode.sequence = sequence;
+        }
+
+        /**
+         * Remove any children that do not have a value set anywhere in their subtree.
+         *
+         * @return Whether this node or any of its descendants has a value set
+         */
+        private boolean prune() {
+            this.children.values().removeIf(child -> !child.prune());
+            return this.value != 0 || !this.children.isEmpty();
+        }
+
+        /**
+         * Collect the segments used by this node's descendants.
+         *
+         * @param segments The set to add segments to
+         * @return The number of descendants of this node
+         */
+        private int collect(Set<PermissionDictionary.Segment> segments) {
+            int count = 0;
+            for (Map.Entry<PermissionDictionary.Segment, Node> child : this.children.entrySet()) {
+                segments.add(child.getKey());
+                count += 1 + child.getValue().collect(segments);
+            }
+            return count;
         }
     }
 }
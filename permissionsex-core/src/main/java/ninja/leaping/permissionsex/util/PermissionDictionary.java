@@ -0,0 +1,288 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A process-wide dictionary of permission names.
+ *
+ * Full permission names are interned so that every holder of a permission shares a single string instance.
+ * The dot-separated segments of permissions are assigned compact integer ids, which {@link NodeTree} uses to
+ * compare segments. Segment ids are never reused.
+ *
+ * All entries are held weakly: a segment is kept for as long as some {@link Segment} instance for it is reachable,
+ * and a permission name for as long as its canonical string is reachable.
+ */
+public final class PermissionDictionary {
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final SegmentRef TOMBSTONE = new SegmentRef(null, -1, 0, null, null);
+
+    private static final Object LOCK = new Object();
+    private static final ReferenceQueue<Segment> COLLECTED = new ReferenceQueue<>();
+    private static volatile AtomicReferenceArray<SegmentRef> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private static int nextId; // Guarded by LOCK
+    private static int usedSlots; // Guarded by LOCK, includes tombstones
+
+    private PermissionDictionary() {
+    }
+
+    /**
+     * A single dot-separated segment of a permission. A segment's id stays assigned for as long as the segment
+     * instance is reachable, so holders of segment ids must also hold on to the segments themselves.
+     */
+    public static final class Segment {
+        private final int id;
+        private final String name;
+
+        private Segment(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" + this.id + "=" + this.name + "}";
+        }
+    }
+
+    private static final class SegmentRef extends WeakReference<Segment> {
+        private final int id;
+        private final int hash;
+        private final String name;
+
+        private SegmentRef(Segment referent, int id, int hash, String name, ReferenceQueue<Segment> queue) {
+            super(referent, queue);
+            this.id = id;
+            this.hash = hash;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Get the canonical instance of a permission name.
+     *
+     * @param permission The permission name
+     * @return A string equal to {@code permission}
+     */
+    public static String intern(String permission) {
+        return NAMES.intern(permission);
+    }
+
+    /**
+     * Copy a map keyed by permission names, replacing every key with its canonical instance.
+     *
+     * @param permissions The map to copy
+     * @param <V> The value type
+     * @return An immutable copy of the map with interned keys
+     */
+    public static <V> ImmutableMap<String, V> internKeys(Map<String, V> permissions) {
+        ImmutableMap.Builder<String, V> ret = ImmutableMap.builder();
+        for (Map.Entry<String, V> entry : permissions.entrySet()) {
+            ret.put(intern(entry.getKey()), entry.getValue());
+        }
+        return ret.build();
+    }
+
+    /**
+     * Get the segment for a name, allocating a new id if the segment is not currently known.
+     * Segment names are case-insensitive, and are stored in lowercase.
+     *
+     * @param name The segment name
+     * @return The segment
+     */
+    public static Segment segment(String name) {
+        final int hash = hash(name, 0, name.length());
+        Segment ret = find(table, name, 0, name.length(), hash);
+        if (ret != null) {
+            return ret;
+        }
+
+        synchronized (LOCK) {
+            expungeCollected();
+            AtomicReferenceArray<SegmentRef> table = PermissionDictionary.table;
+            ret = find(table, name, 0, name.length(), hash);
+            if (ret != null) {
+                return ret;
+            }
+
+            if ((usedSlots + 1) * 2 > table.length()) {
+                table = rehash(table);
+            }
+            final String lowerName = intern(toLowerCase(name));
+            ret = new Segment(nextId++, lowerName);
+            final int mask = table.length() - 1;
+            int i = mix(hash) & mask;
+            while (table.get(i) != null) {
+                i = (i + 1) & mask;
+            }
+            table.set(i, new SegmentRef(ret, ret.id, hash, lowerName, COLLECTED));
+            ++usedSlots;
+            return ret;
+        }
+    }
+
+    /**
+     * Find the id of the segment contained in a section of a character sequence, ignoring case. No allocations
+     * are performed.
+     *
+     * @param seq The sequence containing the segment
+     * @param start The index of the first character of the segment
+     * @param end The index after the last character of the segment
+     * @return The segment id, or -1 if no such segment is known
+     */
+    public static int findSegmentId(CharSequence seq, int start, int end) {
+        final AtomicReferenceArray<SegmentRef> table = PermissionDictionary.table;
+        final int hash = hash(seq, start, end);
+        final int mask = table.length() - 1;
+        for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+            SegmentRef ref = table.get(i);
+            if (ref == null) {
+                return -1;
+            } else if (ref != TOMBSTONE && ref.hash == hash && ref.get() != null && segmentEquals(ref.name, seq, start, end)) {
+                return ref.id;
+            }
+        }
+    }
+
+    private static Segment find(AtomicReferenceArray<SegmentRef> table, CharSequence seq, int start, int end, int hash) {
+        final int mask = table.length() - 1;
+        for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+            SegmentRef ref = table.get(i);
+            if (ref == null) {
+                return null;
+            } else if (ref != TOMBSTONE && ref.hash == hash && segmentEquals(ref.name, seq, start, end)) {
+                Segment ret = ref.get();
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the entries of segments that have been garbage collected with tombstones. Must hold {@link #LOCK}.
+     */
+    private static void expungeCollected() {
+        final AtomicReferenceArray<SegmentRef> table = PermissionDictionary.table;
+        final int mask = table.length() - 1;
+        Reference<? extends Segment> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            final SegmentRef ref = (SegmentRef) collected;
+            for (int i = mix(ref.hash) & mask;; i = (i + 1) & mask) {
+                SegmentRef existing = table.get(i);
+                if (existing == null) {
+                    break; // Already dropped by a rehash
+                } else if (existing == ref) {
+                    table.set(i, TOMBSTONE);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the live entries of the table into a new table, sized for the live entry count. Must hold {@link #LOCK}.
+     *
+     * @param old The existing table
+     * @return The new table, which has been published
+     */
+    private static AtomicReferenceArray<SegmentRef> rehash(AtomicReferenceArray<SegmentRef> old) {
+        int live = 0;
+        for (int i = 0; i < old.length(); ++i) {
+            SegmentRef ref = old.get(i);
+            if (ref != null && ref != TOMBSTONE && ref.get() != null) {
+                ++live;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (live + 1) * 4) {
+            capacity <<= 1;
+        }
+
+        final AtomicReferenceArray<SegmentRef> table = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.length(); ++i) {
+            SegmentRef ref = old.get(i);
+            if (ref != null && ref != TOMBSTONE && ref.get() != null) {
+                int j = mix(ref.hash) & mask;
+                while (table.get(j) != null) {
+                    j = (j + 1) & mask;
+                }
+                table.set(j, ref);
+            }
+        }
+        usedSlots = live;
+        PermissionDictionary.table = table;
+        return table;
+    }
+
+    /**
+     * Lowercase a segment name character by character, consistently with how segments are compared.
+     *
+     * @param name The name to lowercase
+     * @return The lowercased name
+     */
+    private static String toLowerCase(String name) {
+        final char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; ++i) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static boolean segmentEquals(String segment, CharSequence seq, int start, int end) {
+        if (segment.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); ++i) {
+            if (segment.charAt(i) != Character.toLowerCase(seq.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence seq, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + Character.toLowerCase(seq.charAt(i));
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
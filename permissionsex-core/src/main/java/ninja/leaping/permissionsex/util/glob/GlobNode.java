@@ -16,7 +16,10 @@
  */
 package ninja.leaping.permissionsex.util.glob;
 
+import javax.annotation.Nullable;
 import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
 /**
  * A compiled version of a glob expression.
@@ -57,4 +60,41 @@ public abstract class GlobNode implements Iterable<String> {
         }
         return false;
     }
+
+    /**
+     * Get the single value this glob matches, if it is a plain literal.
+     *
+     * @return The literal value, or null if this glob contains any alternations
+     */
+    @Nullable
+    public String getLiteral() {
+        return null;
+    }
+
+    /**
+     * Find every prefix of the input that this glob matches, ignoring case, without expanding the glob.
+     *
+     * @param input The input to match against
+     * @param end The index to stop matching at
+     * @param matches Receives the end index of each matching prefix. An index may be reported more than once
+     */
+    public void matchPrefixesIgnoreCase(CharSequence input, int end, IntConsumer matches) {
+        Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(matches, "matches");
+        match(input, 0, end, matchEnd -> {
+            matches.accept(matchEnd);
+            return false;
+        });
+    }
+
+    /**
+     * Match this glob against the input at a position, ignoring case.
+     *
+     * @param input The input to match against
+     * @param position The index to start matching at
+     * @param end The index to stop matching at
+     * @param next Called with the index after each way this glob can match. Returns true to stop matching
+     * @return Whether matching was stopped by {@code next}
+     */
+    abstract boolean match(CharSequence input, int position, int end, IntPredicate next);
 }
@@ -0,0 +1,141 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util.glob;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recursive-descent parser for glob expressions, reading the input string directly. The grammar is:
+ *
+ * <pre>
+ * glob:    element+
+ * element: or | literal
+ * or:      '{' glob (',' glob)* '}'
+ * literal: (any character other than '{', ',' or '}' | '\' ('{' | ',' | '}'))+
+ * </pre>
+ */
+final class GlobParser {
+    private static final char OR_START = '{';
+    private static final char OR_SEPARATOR = ',';
+    private static final char OR_END = '}';
+    private static final char ESCAPE = '\\';
+
+    private final String input;
+    private int position;
+
+    private GlobParser(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Parse a glob expression.
+     *
+     * @param input The expression to parse
+     * @return The parsed glob
+     * @throws GlobParseException if the input is not a valid glob expression
+     */
+    static GlobNode parse(String input) throws GlobParseException {
+        GlobParser parser = new GlobParser(input);
+        GlobNode ret = parser.glob();
+        if (parser.position < input.length()) {
+            throw parser.unexpected();
+        }
+        return ret;
+    }
+
+    private GlobNode glob() throws GlobParseException {
+        GlobNode first = null;
+        List<GlobNode> elements = null;
+        while (this.position < this.input.length()) {
+            final char c = this.input.charAt(this.position);
+            final GlobNode element;
+            if (c == OR_START) {
+                element = or();
+            } else if (c == OR_SEPARATOR || c == OR_END) {
+                break;
+            } else {
+                element = literal();
+            }
+
+            if (first == null) {
+                first = element;
+            } else {
+                if (elements == null) {
+                    elements = new ArrayList<>();
+                    elements.add(first);
+                }
+                elements.add(element);
+            }
+        }
+
+        if (first == null) {
+            throw unexpected();
+        }
+        return elements == null ? first : new SequenceNode(elements);
+    }
+
+    private GlobNode or() throws GlobParseException {
+        ++this.position; // OR_START
+        ImmutableList.Builder<GlobNode> alternatives = ImmutableList.builder();
+        alternatives.add(glob());
+        while (this.position < this.input.length()) {
+            if (this.input.charAt(this.position++) == OR_END) {
+                return new OrNode(alternatives.build());
+            }
+            alternatives.add(glob()); // OR_SEPARATOR
+        }
+        throw unexpected();
+    }
+
+    private GlobNode literal() {
+        final int start = this.position;
+        StringBuilder unescaped = null;
+        while (this.position < this.input.length()) {
+            final char c = this.input.charAt(this.position);
+            if (isSpecial(c)) {
+                break;
+            } else if (c == ESCAPE && this.position + 1 < this.input.length() && isSpecial(this.input.charAt(this.position + 1))) {
+                if (unescaped == null) {
+                    unescaped = new StringBuilder(this.input.length() - start).append(this.input, start, this.position);
+                }
+                unescaped.append(this.input.charAt(this.position + 1));
+                this.position += 2;
+            } else {
+                if (unescaped != null) {
+                    unescaped.append(c);
+                }
+                ++this.position;
+            }
+        }
+        return new UnitNode(unescaped == null ? this.input.substring(start, this.position) : unescaped.toString());
+    }
+
+    private static boolean isSpecial(char c) {
+        return c == OR_START || c == OR_SEPARATOR || c == OR_END;
+    }
+
+    private GlobParseException unexpected() {
+        if (this.position >= this.input.length()) {
+            return new GlobParseException("Unable to parse glob: Unexpected end of input in " + this.input);
+        } else {
+            return new GlobParseException("Unable to parse glob: Unexpected '" + this.input.charAt(this.position) + "' at position " + this.position + " in " + this.input);
+        }
+    }
+}
@@ -16,21 +16,36 @@
  */
 package ninja.leaping.permissionsex.util.glob;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.ImmutableList;
-import ninja.leaping.permissionsex.util.glob.parser.GlobLexer;
-import ninja.leaping.permissionsex.util.glob.parser.GlobParser;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.BailErrorStrategy;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.RecognitionException;
-import org.antlr.v4.runtime.misc.ParseCancellationException;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
 import java.util.List;
 
 public class Globs {
+    private static final int MAX_CACHED_GLOBS = 4096;
+    /**
+     * Results of parsing glob expressions, by input. Parsed nodes are immutable, so they can be shared freely.
+     */
+    private static final Cache<String, ParseResult> PARSED = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_GLOBS)
+            .build();
+
     private Globs() {}
 
+    /**
+     * Either a parsed glob or the error encountered while parsing it
+     */
+    private static final class ParseResult {
+        private final GlobNode node;
+        private final GlobParseException error;
+
+        private ParseResult(GlobNode node, GlobParseException error) {
+            this.node = node;
+            this.error = error;
+        }
+    }
+
     public static GlobNode or(Object... ors) {
         return new OrNode(parseValues(ors));
     }
@@ -47,25 +62,21 @@ public class Globs {
         if (!(input.contains("{") || input.contains("["))) { // If no special characters, just return raw input
             return new UnitNode(input);
         }
-        return parse(new ANTLRInputStream(input));
-    }
-
-    private static GlobNode parse(ANTLRInputStream input) throws GlobParseException {
-        GlobLexer lexer = new GlobLexer(input);
-        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-        GlobParser parser = new GlobParser(tokenStream);
-        parser.setErrorHandler(new BailErrorStrategy());
-        ParseTreeWalker walker = new ParseTreeWalker();
-        GlobListener listener = new GlobListener();
 
-        try {
-            walker.walk(listener, parser.rootGlob());
-        } catch (ParseCancellationException e) {
-            RecognitionException ex = ((RecognitionException) e.getCause());
-            throw new GlobParseException("Unable to parse glob: Error at token " + ex.getOffendingToken().getText() + " at position " +  ex.getOffendingToken().getLine() + ":" + ex.getOffendingToken().getCharPositionInLine(), ex);
+        ParseResult result = PARSED.getIfPresent(input);
+        if (result == null) {
+            try {
+                result = new ParseResult(GlobParser.parse(input), null);
+            } catch (GlobParseException e) {
+                result = new ParseResult(null, e);
+            }
+            PARSED.put(input, result);
         }
 
-        return listener.popNode();
+        if (result.error != null) {
+            throw new GlobParseException(result.error.getMessage(), result.error.getCause());
+        }
+        return result.node;
     }
 
     private static List<GlobNode> parseValues(Object[] objs) {
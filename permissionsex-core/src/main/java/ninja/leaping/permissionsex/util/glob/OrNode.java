@@ -21,6 +21,7 @@ import com.google.common.collect.Iterators;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.IntPredicate;
 
 class OrNode extends GlobNode {
     private final List<GlobNode> children;
@@ -34,6 +35,16 @@ class OrNode extends GlobNode {
         return Iterators.concat(Iterators.transform(children.iterator(), GlobNode::iterator));
     }
 
+    @Override
+    boolean match(CharSequence input, int position, int end, IntPredicate next) {
+        for (GlobNode child : children) {
+            if (child.match(input, position, end, next)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         return "or(" + children + ")";
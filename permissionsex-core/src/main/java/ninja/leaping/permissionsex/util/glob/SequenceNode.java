@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.IntPredicate;
 
 class SequenceNode extends GlobNode {
     private static final Joiner JOIN = Joiner.on("");
@@ -84,6 +85,18 @@ class SequenceNode extends GlobNode {
         }
     }
 
+    @Override
+    boolean match(CharSequence input, int position, int end, IntPredicate next) {
+        return matchFrom(0, input, position, end, next);
+    }
+
+    private boolean matchFrom(int child, CharSequence input, int position, int end, IntPredicate next) {
+        if (child == children.size()) {
+            return next.test(position);
+        }
+        return children.get(child).match(input, position, end, childEnd -> matchFrom(child + 1, input, childEnd, end, next));
+    }
+
     @Override
     public String toString() {
         return "seq(" + children + ")";
@@ -23,6 +23,7 @@ import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 class UnitNode extends GlobNode {
     private final String value;
@@ -36,6 +37,24 @@ class UnitNode extends GlobNode {
         return value;
     }
 
+    @Override
+    public String getLiteral() {
+        return value;
+    }
+
+    @Override
+    boolean match(CharSequence input, int position, int end, IntPredicate next) {
+        if (end - position < value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            if (Character.toLowerCase(value.charAt(i)) != Character.toLowerCase(input.charAt(position + i))) {
+                return false;
+            }
+        }
+        return next.test(position + value.length());
+    }
+
     @Override
     public boolean matches(String input) {
         return value.equals(input);
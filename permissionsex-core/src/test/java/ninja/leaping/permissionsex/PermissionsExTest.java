@@ -26,6 +26,7 @@ import org.junit.Rule;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract test for test classes wishing to test in cases requiring a permissions manager
@@ -39,7 +40,7 @@ public abstract class PermissionsExTest {
         PermissionsExConfiguration config = populate();
         config.validate();
 
-        manager = new PermissionsEx(config, new TestImplementationInterface(tempFolder.newFolder().toPath()));
+        manager = new PermissionsEx(config, new TestImplementationInterface(tempFolder.newFolder().toPath(), getAsyncExecutor()));
     }
 
     @After
@@ -54,5 +55,14 @@ public abstract class PermissionsExTest {
         return manager;
     }
 
+    /**
+     * Get the executor the permissions manager runs asynchronous tasks on. By default tasks are run immediately.
+     *
+     * @return The async executor
+     */
+    protected Executor getAsyncExecutor() {
+        return Runnable::run;
+    }
+
     protected abstract PermissionsExConfiguration populate();
 }
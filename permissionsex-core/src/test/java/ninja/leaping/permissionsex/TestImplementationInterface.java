@@ -35,10 +35,16 @@ import java.util.concurrent.Executor;
 
 public class TestImplementationInterface implements ImplementationInterface {
     private final Path baseDirectory;
+    private final Executor asyncExecutor;
     private final Logger logger = LoggerFactory.getLogger("TestImpl");
 
     public TestImplementationInterface(Path baseDirectory) {
+        this(baseDirectory, Runnable::run);
+    }
+
+    public TestImplementationInterface(Path baseDirectory, Executor asyncExecutor) {
         this.baseDirectory = baseDirectory;
+        this.asyncExecutor = asyncExecutor;
     }
 
     @Override
@@ -79,7 +85,7 @@ public class TestImplementationInterface implements ImplementationInterface {
      */
     @Override
     public Executor getAsyncExecutor() {
-        return Runnable::run;
+        return this.asyncExecutor;
     }
 
     @Override
@@ -41,6 +41,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
@@ -428,6 +429,43 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testBatchedSegments() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final SubjectRef admin = dao.getOrCreateSubjectRef("group", "admin"),
+                    member = dao.getOrCreateSubjectRef("group", "member"),
+                    empty = dao.getOrCreateSubjectRef("group", "empty");
+            Segment global = dao.addSegment(admin);
+            dao.setPermissions(global, ImmutableMap.of("test.first", 1, "test.second", -1));
+            dao.setOptions(global, ImmutableMap.of("prefix", "admin"));
+            dao.setParents(global, ImmutableList.of(member));
+            dao.setDefaultValue(global, 1);
+            Segment world = dao.addSegment(admin);
+            dao.setContexts(world, ImmutableSet.of(Maps.immutableEntry("world", "nether")));
+            dao.setPermissions(world, ImmutableMap.of("test.first", -1));
+            dao.setPermissions(dao.addSegment(member), ImmutableMap.of("test.member", 1));
+
+            final Map<String, SubjectRef> refs = dao.getSubjectRefs("group", ImmutableList.of("admin", "member", "empty", "missing"));
+            assertEquals(ImmutableSet.of("admin", "member", "empty"), refs.keySet());
+            assertEquals(admin.getId(), refs.get("admin").getId());
+
+            final Map<Integer, List<Segment>> segments = dao.getSegments(refs.values());
+            assertFalse(segments.containsKey(empty.getId()));
+            for (SubjectRef ref : ImmutableList.of(admin, member)) {
+                final List<Segment> expected = dao.getSegments(ref), actual = segments.get(ref.getId());
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); ++i) {
+                    assertEquals(expected.get(i).getId(), actual.get(i).getId());
+                    assertEquals(expected.get(i).getContexts(), actual.get(i).getContexts());
+                    assertEquals(expected.get(i).getPermissions(), actual.get(i).getPermissions());
+                    assertEquals(expected.get(i).getOptions(), actual.get(i).getOptions());
+                    assertEquals(expected.get(i).getParents(), actual.get(i).getParents());
+                    assertEquals(expected.get(i).getPermissionDefault(), actual.get(i).getPermissionDefault());
+                }
+            }
+        }
+    }
+
     @Test
     public void testSetDefaultValue() throws SQLException {
         try (SqlDao dao = sqlStore.getDao()) {
@@ -0,0 +1,127 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.exception.PEBKACException;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubjectCacheTest extends PermissionsExTest {
+
+    @Test
+    public void testUnregisteredCached() throws ExecutionException, InterruptedException, PermissionsLoadingException {
+        final DataStore store = new MemoryDataStore();
+        store.initialize(getManager());
+        final SubjectCache cache = new SubjectCache(PermissionsEx.SUBJECTS_GROUP, store);
+
+        assertFalse(cache.isRegistered("test").get());
+        store.setData(PermissionsEx.SUBJECTS_GROUP, "test", store.getData(PermissionsEx.SUBJECTS_GROUP, "test", null).get()
+                .setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertTrue(store.isRegistered(PermissionsEx.SUBJECTS_GROUP, "test").get());
+        assertFalse(cache.isRegistered("test").get());
+
+        assertFalse(cache.isRegistered("other").get());
+        cache.update("other", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertTrue(cache.isRegistered("other").get());
+    }
+
+    @Test
+    public void testGetAll() throws ExecutionException, InterruptedException, PermissionsLoadingException {
+        final DataStore store = new MemoryDataStore();
+        store.initialize(getManager());
+        final SubjectCache cache = new SubjectCache(PermissionsEx.SUBJECTS_GROUP, store);
+        cache.update("first", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+
+        final Map<String, ImmutableSubjectData> loaded = cache.getAll(ImmutableList.of("first", "second")).get();
+        assertEquals(ImmutableSet.of("first", "second"), loaded.keySet());
+        assertEquals(1, loaded.get("first").getPermissions(GLOBAL_CONTEXT).get("test.permission").intValue());
+        assertTrue(loaded.get("second").getAllPermissions().isEmpty());
+
+        cache.update("second", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, cache.getData("second", null).get().getPermissions(GLOBAL_CONTEXT).get("test.permission").intValue());
+    }
+
+    @Test
+    public void testWarm() throws ExecutionException, InterruptedException, PermissionsLoadingException {
+        final DataStore store = new MemoryDataStore();
+        store.initialize(getManager());
+        for (int i = 0; i < 10; ++i) {
+            store.setData(PermissionsEx.SUBJECTS_GROUP, "group" + i, store.getData(PermissionsEx.SUBJECTS_GROUP, "group" + i, null).get()
+                    .setPermission(GLOBAL_CONTEXT, "test.permission", i + 1)).get();
+        }
+        final SubjectCache cache = new SubjectCache(PermissionsEx.SUBJECTS_GROUP, store);
+
+        new CacheWarmer(3, 2, getManager().getLogger()).warm(ImmutableList.of(cache));
+        for (int i = 0; i < 10; ++i) {
+            final ImmutableSubjectData data = cache.getDataIfPresent("group" + i, null);
+            assertNotNull(data);
+            assertEquals(i + 1, data.getPermissions(GLOBAL_CONTEXT).get("test.permission").intValue());
+        }
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new PermissionsExConfiguration() {
+            @Override
+            public DataStore getDataStore(String name) {
+                return null;
+            }
+
+            @Override
+            public DataStore getDefaultDataStore() {
+                return new MemoryDataStore();
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getServerTags() {
+                return ImmutableList.of();
+            }
+
+            @Override
+            public void validate() throws PEBKACException {
+            }
+
+            @Override
+            public PermissionsExConfiguration reload() throws IOException {
+                return this;
+            }
+        };
+    }
+}
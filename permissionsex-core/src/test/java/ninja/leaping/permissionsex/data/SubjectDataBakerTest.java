@@ -17,10 +17,16 @@
 package ninja.leaping.permissionsex.data;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMapper;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.PermissionsExTest;
 import ninja.leaping.permissionsex.backend.DataStore;
 import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.CacheConfiguration;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
 import ninja.leaping.permissionsex.exception.PEBKACException;
 import ninja.leaping.permissionsex.subject.CalculatedSubject;
@@ -30,12 +36,50 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SubjectDataBakerTest extends PermissionsExTest {
+    private long staleDataMaxAge;
+    private int bakeParallelism;
+    private GatedDataStore dataStore;
+    private volatile boolean deferAsync;
+    private final Queue<Runnable> deferredTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A memory data store that holds back loading one subject until released
+     */
+    private static class GatedDataStore extends MemoryDataStore {
+        private static final Factory FACTORY = new Factory("gated-memory", GatedDataStore.class);
+        private volatile String heldIdentifier;
+        private volatile boolean heldRequested;
+        private final CompletableFuture<Void> release = new CompletableFuture<>();
+
+        private GatedDataStore() {
+            super(FACTORY);
+        }
+
+        @Override
+        public CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
+            if (identifier.equals(this.heldIdentifier)) {
+                this.heldRequested = true;
+                return this.release.thenCompose(none -> super.getDataInternal(type, identifier));
+            }
+            return super.getDataInternal(type, identifier);
+        }
+    }
 
     /**
      * Arrangement:
@@ -61,6 +105,273 @@ public class SubjectDataBakerTest extends PermissionsExTest {
         assertEquals(1, subjectS.getPermissions(GLOBAL_CONTEXT).get("test.permission.child"));
     }
 
+    @Test
+    public void testIdenticalBakedDataShared() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").thenCompose(parent -> parent.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).thenApply(data -> parent)).get();
+        CalculatedSubject firstS = groupCache.get("first").thenCompose(first -> first.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> first)).get();
+        CalculatedSubject secondS = groupCache.get("second").thenCompose(second -> second.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> second)).get();
+
+        assertEquals(1, firstS.getPermissions(GLOBAL_CONTEXT).get("test.permission"));
+        assertSame(firstS.getPermissions(GLOBAL_CONTEXT), secondS.getPermissions(GLOBAL_CONTEXT));
+        assertSame(firstS.getParents(GLOBAL_CONTEXT), secondS.getParents(GLOBAL_CONTEXT));
+    }
+
+    @Test
+    public void testPermissionResultsFollowParentChanges() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testPermissionResultsFollowParentChangesAfterEviction() throws ExecutionException, InterruptedException, ObjectMappingException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        SimpleConfigurationNode caches = SimpleConfigurationNode.root();
+        caches.getNode("baked-data-weight").setValue(1);
+        groupCache.updateCaches(ObjectMapper.forClass(CacheConfiguration.class).bindToNew().populate(caches)); // Evicts the child's baked data
+        groupCache.updateCaches(new CacheConfiguration());
+
+        parentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertEquals(1, childS.getPermissions(GLOBAL_CONTEXT).get("test.permission"));
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testTransitiveDependentsInvalidated() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+        CalculatedSubject subjectS = groupCache.get("subject").thenCompose(subject -> subject.data().update(old -> old.addParent(GLOBAL_CONTEXT, childS.getIdentifier().getKey(), childS.getIdentifier().getValue())).thenApply(data -> subject)).get();
+
+        assertEquals(0, subjectS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertEquals(1, subjectS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, subjectS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testInheritanceChangesRebaked() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject grandparentS = groupCache.get("grandparent").thenCompose(grandparent -> grandparent.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).thenApply(data -> grandparent)).get();
+        CalculatedSubject parentS = groupCache.get("parent").thenCompose(parent -> parent.data().update(old -> old.setOption(GLOBAL_CONTEXT, "prefix", "parent")).thenApply(data -> parent)).get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals("parent", childS.getOption(GLOBAL_CONTEXT, "prefix").get());
+        parentS.data().update(old -> old.addParent(GLOBAL_CONTEXT, grandparentS.getIdentifier().getKey(), grandparentS.getIdentifier().getValue())).get();
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.setOption(GLOBAL_CONTEXT, "prefix", "updated")).get();
+        assertEquals("updated", childS.getOption(GLOBAL_CONTEXT, "prefix").get());
+        grandparentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testSharedInheritanceFollowsChanges() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject grandparentS = groupCache.get("grandparent").thenCompose(grandparent -> grandparent.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).thenApply(data -> grandparent)).get();
+        CalculatedSubject parentS = groupCache.get("parent").thenCompose(parent -> parent.data().update(old -> old.addParent(GLOBAL_CONTEXT, grandparentS.getIdentifier().getKey(), grandparentS.getIdentifier().getValue())).thenApply(data -> parent)).get();
+        CalculatedSubject firstS = groupCache.get("first").thenCompose(first -> first.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> first)).get();
+        CalculatedSubject secondS = groupCache.get("second").thenCompose(second -> second.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> second)).get();
+
+        assertEquals(1, firstS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        grandparentS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, secondS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(-1, firstS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testContextSegmentsFollowChanges() throws ExecutionException, InterruptedException {
+        final Set<Map.Entry<String, String>> worldContext = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").thenCompose(parent -> parent.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).thenApply(data -> parent)).get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+
+        assertEquals(1, childS.getPermission(worldContext, "test.permission"));
+        parentS.data().update(old -> old.setPermission(worldContext, "test.permission", -2)).get();
+        assertEquals(-2, childS.getPermission(worldContext, "test.permission"));
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.setOption(ImmutableSet.of(Maps.immutableEntry("world", "end")), "prefix", "end")).get();
+        assertEquals(-2, childS.getPermission(worldContext, "test.permission"));
+    }
+
+    @Test
+    public void testContextInheritanceExpanded() throws ExecutionException, InterruptedException {
+        final Map.Entry<String, String> nether = Maps.immutableEntry("world", "nether");
+        final Map.Entry<String, String> overworld = Maps.immutableEntry("world", "overworld");
+        final Set<Map.Entry<String, String>> netherContext = ImmutableSet.of(nether);
+        assertEquals(netherContext, getManager().getExpandedContexts(netherContext).get());
+
+        ContextInheritance inheritance = getManager().getContextInheritance(null).get();
+        getManager().setContextInheritance(inheritance.setParents(nether, ImmutableList.of(overworld))).get();
+        assertEquals(ImmutableSet.of(nether, overworld), getManager().getExpandedContexts(netherContext).get());
+
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject groupS = groupCache.get("group").thenCompose(group -> group.data().update(old -> old.setPermission(ImmutableSet.of(overworld), "test.permission", 1)).thenApply(data -> group)).get();
+        assertEquals(1, groupS.getPermission(netherContext, "test.permission"));
+    }
+
+    @Test
+    public void testColdParentsBakedInOrder() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        groupCache.persistentData().update("base", old -> old.setOption(GLOBAL_CONTEXT, "prefix", "base").setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        groupCache.persistentData().update("first", old -> old.setOption(GLOBAL_CONTEXT, "prefix", "first").addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "base")).get();
+        groupCache.persistentData().update("second", old -> old.setOption(GLOBAL_CONTEXT, "prefix", "second").setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        final List<Map.Entry<String, String>> parents = ImmutableList.of(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "first"), Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "second"));
+        groupCache.persistentData().update("child", old -> old.setParents(GLOBAL_CONTEXT, parents)).get();
+        for (String group : new String[] {"base", "first", "second", "child"}) {
+            groupCache.uncache(group);
+        }
+
+        CalculatedSubject childS = groupCache.get("child").get();
+        assertEquals("first", childS.getOption(GLOBAL_CONTEXT, "prefix").get());
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(ImmutableList.builder().addAll(parents).add(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "base")).build(), childS.getParents(GLOBAL_CONTEXT));
+    }
+
+    @Test
+    public void testColdParentsBakedOnBakeExecutor() throws ExecutionException, InterruptedException {
+        this.bakeParallelism = 2;
+        getManager().reload().get();
+        assertNotSame(getManager().getAsyncExecutor(), getManager().getBakeExecutor());
+
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        groupCache.persistentData().update("first", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        groupCache.persistentData().update("second", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "first")).get();
+        groupCache.persistentData().update("child", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "second")).get();
+        for (String group : new String[] {"first", "second", "child"}) {
+            groupCache.uncache(group);
+        }
+
+        CalculatedSubject childS = groupCache.get("child").get();
+        childS.prebake(GLOBAL_CONTEXT).get();
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Test
+    public void testDiamondInheritanceVisitedOnce() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        groupCache.persistentData().update("top", old -> old.setPermission(GLOBAL_CONTEXT, "#top.direct", 1).setPermission(GLOBAL_CONTEXT, "top.inherited", 1)).get();
+        groupCache.persistentData().update("left", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "top")).get();
+        groupCache.persistentData().update("right", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "top")).get();
+        final List<Map.Entry<String, String>> parents = ImmutableList.of(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "left"),
+                Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "right"), Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "top"));
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.setParents(GLOBAL_CONTEXT, parents)).thenApply(data -> child)).get();
+
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "top.inherited"));
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "top.direct")); // top is also a direct parent
+        CalculatedSubject otherS = groupCache.get("other").thenCompose(other -> other.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "left")).thenApply(data -> other)).get();
+        assertEquals(0, otherS.getPermission(GLOBAL_CONTEXT, "top.direct"));
+    }
+
+    @Test
+    public void testCircularInheritance() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        groupCache.persistentData().update("first", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "second").setOption(GLOBAL_CONTEXT, "prefix", "first")).get();
+        groupCache.persistentData().update("second", old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "first").setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        CalculatedSubject firstS = groupCache.get("first").get();
+
+        assertEquals(ImmutableList.of(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "second"), Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "first")), firstS.getParents(GLOBAL_CONTEXT));
+        assertEquals(1, firstS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals("first", groupCache.get("second").get().getOption(GLOBAL_CONTEXT, "prefix").get());
+    }
+
+    @Test
+    public void testStaleDataReplaced() throws ExecutionException, InterruptedException {
+        this.staleDataMaxAge = 60000;
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        parentS.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "grandparent")).get();
+        groupCache.persistentData().update("grandparent", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        childS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(0, groupCache.getStaleDataServed());
+    }
+
+    @Test
+    public void testStaleDataServedWhileBaking() throws ExecutionException, InterruptedException {
+        this.staleDataMaxAge = 60000;
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+
+        // Write directly to the backend, so the grandparent still has to be loaded when the child is baked again
+        this.dataStore.setData(PermissionsEx.SUBJECTS_GROUP, "grandparent", this.dataStore.getData(PermissionsEx.SUBJECTS_GROUP, "grandparent", null).get()
+                .setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        this.dataStore.heldIdentifier = "grandparent";
+        parentS.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "grandparent")).get();
+
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        final long served = groupCache.getStaleDataServed();
+        assertTrue(served > 0);
+
+        this.dataStore.release.complete(null);
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(served, groupCache.getStaleDataServed());
+    }
+
+    @Test
+    public void testStaleDataReplacedOnAsyncExecutor() throws ExecutionException, InterruptedException {
+        this.staleDataMaxAge = 60000;
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject parentS = groupCache.get("parent").get();
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, parentS.getIdentifier().getKey(), parentS.getIdentifier().getValue())).thenApply(data -> child)).get();
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        this.dataStore.setData(PermissionsEx.SUBJECTS_GROUP, "grandparent", this.dataStore.getData(PermissionsEx.SUBJECTS_GROUP, "grandparent", null).get()
+                .setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        this.dataStore.heldIdentifier = "grandparent";
+
+        // Run queued tasks only until the update is applied, leaving the child's rebake queued
+        this.deferAsync = true;
+        CompletableFuture<?> update = parentS.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "grandparent"));
+        Runnable task;
+        while (!update.isDone() && (task = this.deferredTasks.poll()) != null) {
+            task.run();
+        }
+        assertTrue(update.isDone());
+
+        // Serving stale data must not start a bake on the calling thread
+        final int queued = this.deferredTasks.size();
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertEquals(queued, this.deferredTasks.size());
+        assertFalse(this.dataStore.heldRequested);
+
+        this.deferAsync = false;
+        while ((task = this.deferredTasks.poll()) != null) {
+            task.run();
+        }
+        assertTrue(this.dataStore.heldRequested);
+        this.dataStore.release.complete(null);
+        assertEquals(1, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Override
+    protected Executor getAsyncExecutor() {
+        return task -> {
+            if (this.deferAsync) {
+                this.deferredTasks.add(task);
+            } else {
+                task.run();
+            }
+        };
+    }
+
     @Override
     protected PermissionsExConfiguration populate() {
         return new PermissionsExConfiguration() {
@@ -71,7 +382,8 @@ public class SubjectDataBakerTest extends PermissionsExTest {
 
             @Override
             public DataStore getDefaultDataStore() {
-                return new MemoryDataStore();
+                dataStore = new GatedDataStore();
+                return dataStore;
             }
 
             @Override
@@ -84,6 +396,16 @@ public class SubjectDataBakerTest extends PermissionsExTest {
                 return ImmutableList.of();
             }
 
+            @Override
+            public long getStaleDataMaxAge() {
+                return staleDataMaxAge;
+            }
+
+            @Override
+            public int getBakeParallelism() {
+                return bakeParallelism;
+            }
+
             @Override
             public void validate() throws PEBKACException {
 
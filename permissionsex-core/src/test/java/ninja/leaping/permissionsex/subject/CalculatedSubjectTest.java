@@ -0,0 +1,85 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.exception.PEBKACException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class CalculatedSubjectTest extends PermissionsExTest {
+
+    @Test
+    public void testMemoizedDataNotExpiredWhileInUse() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject subjectS = groupCache.get("subject").thenCompose(subject -> subject.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).thenApply(data -> subject)).get();
+        subjectS.getBakedDataCache().policy().expireAfterAccess().get().setExpiresAfter(200, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, subjectS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+            Thread.sleep(50);
+        }
+        assertNotNull(subjectS.getBakedDataCache().getIfPresent(GLOBAL_CONTEXT));
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new PermissionsExConfiguration() {
+            @Override
+            public DataStore getDataStore(String name) {
+                return null;
+            }
+
+            @Override
+            public DataStore getDefaultDataStore() {
+                return new MemoryDataStore();
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getServerTags() {
+                return ImmutableList.of();
+            }
+
+            @Override
+            public void validate() throws PEBKACException {
+            }
+
+            @Override
+            public PermissionsExConfiguration reload() throws IOException {
+                return this;
+            }
+        };
+    }
+}
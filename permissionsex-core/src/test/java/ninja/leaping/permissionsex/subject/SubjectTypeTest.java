@@ -0,0 +1,107 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.exception.PEBKACException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubjectTypeTest extends PermissionsExTest {
+
+    @Test
+    public void testUncachedSubjectsNotWatched() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        SubjectType userCache = getManager().getSubjects(PermissionsEx.SUBJECTS_USER);
+        groupCache.persistentData().update("parent", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        CalculatedSubject userS = userCache.get("user").thenCompose(user -> user.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "parent")).thenApply(data -> user)).get();
+
+        assertEquals(1, userS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertTrue(groupCache.isWatched("parent"));
+        assertFalse(userCache.isWatched("user"));
+
+        // Changes to a subject's own data still reach its baked data
+        userS.data().update(old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", -1)).get();
+        assertEquals(-1, userS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+
+        userCache.uncache("user");
+        assertFalse(userCache.isWatched("user"));
+        groupCache.uncache("parent");
+        assertTrue(groupCache.isWatched("parent")); // The user subject instance is still reachable
+    }
+
+    @Test
+    public void testUnusedWatchesDropped() throws ExecutionException, InterruptedException {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject childS = groupCache.get("child").thenCompose(child -> child.data().update(old -> old.addParent(GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "parent")).thenApply(data -> child)).get();
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        assertTrue(groupCache.isWatched("parent"));
+
+        childS.data().update(old -> old.clearParents(GLOBAL_CONTEXT)).get();
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+        groupCache.persistentData().update("parent", old -> old.setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+        assertFalse(groupCache.isWatched("parent"));
+        assertEquals(0, childS.getPermission(GLOBAL_CONTEXT, "test.permission"));
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new PermissionsExConfiguration() {
+            @Override
+            public DataStore getDataStore(String name) {
+                return null;
+            }
+
+            @Override
+            public DataStore getDefaultDataStore() {
+                return new MemoryDataStore();
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getServerTags() {
+                return ImmutableList.of();
+            }
+
+            @Override
+            public void validate() throws PEBKACException {
+            }
+
+            @Override
+            public PermissionsExConfiguration reload() throws IOException {
+                return this;
+            }
+        };
+    }
+}
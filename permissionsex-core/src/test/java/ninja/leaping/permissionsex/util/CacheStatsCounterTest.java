@@ -0,0 +1,62 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheStatsCounterTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long nanos : new long[] {0, 1, 3, 4, 7, 8, 9, 1000, 123456789, Long.MAX_VALUE}) {
+            final long upper = CacheStatsCounter.bucketUpperBound(CacheStatsCounter.bucketFor(nanos));
+            assertTrue(nanos + " above upper bound " + upper, nanos <= upper);
+            assertTrue(nanos + " too far below upper bound " + upper, upper - nanos <= nanos / 4 + 1);
+        }
+        assertEquals(CacheStatsCounter.BUCKET_COUNT - 1, CacheStatsCounter.bucketFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStatistics() {
+        final CacheStatsCounter counter = new CacheStatsCounter();
+        final LoadingCache<String, String> cache = Caffeine.newBuilder()
+                .recordStats(() -> counter)
+                .build(key -> key);
+        cache.get("first");
+        cache.get("first");
+        cache.get("second");
+        for (int i = 0; i < 99; ++i) {
+            counter.recordLoadSuccess(1000);
+        }
+        counter.recordLoadSuccess(1000000);
+
+        final CacheStatistics stats = CacheStatistics.of(counter, Collections.singleton(cache));
+        assertEquals(1, stats.getStats().hitCount());
+        assertEquals(2, stats.getStats().missCount());
+        assertEquals(2, stats.getSize());
+        assertTrue(stats.getLoadTimePercentile(0.5) < 2000);
+        assertTrue(stats.getLoadTimePercentile(1) >= 1000000);
+        assertEquals(2 * stats.getSize(), stats.plus(stats).getSize());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ContextSetTest {
+    private static final Map.Entry<String, String> WORLD = Maps.immutableEntry("world", "nether");
+    private static final Map.Entry<String, String> DIMENSION = Maps.immutableEntry("dimension", "nether");
+    private static final Map.Entry<String, String> SERVER = Maps.immutableEntry("srv", "lobby");
+
+    @Test
+    public void testInterned() {
+        ContextSet contexts = ContextSet.of(ImmutableSet.of(WORLD, DIMENSION));
+        assertSame(contexts, ContextSet.of(ImmutableSet.of(DIMENSION, Maps.immutableEntry("world", "nether"))));
+        assertSame(ContextSet.empty(), ContextSet.of(ImmutableSet.of()));
+        assertSame(contexts, ContextSet.of(contexts));
+    }
+
+    @Test
+    public void testSetContract() {
+        Set<Map.Entry<String, String>> raw = ImmutableSet.of(WORLD, SERVER);
+        ContextSet contexts = ContextSet.of(raw);
+        assertEquals(raw, contexts);
+        assertEquals(contexts, raw);
+        assertEquals(raw.hashCode(), contexts.hashCode());
+        assertEquals(2, contexts.size());
+        assertTrue(contexts.contains(Maps.immutableEntry("srv", "lobby")));
+        assertFalse(contexts.contains(DIMENSION));
+        assertEquals(raw, ImmutableSet.copyOf(contexts));
+    }
+
+    @Test
+    public void testSubsets() {
+        ContextSet contexts = ContextSet.of(ImmutableSet.of(WORLD, DIMENSION, SERVER));
+        List<ContextSet> subsets = contexts.subsets();
+        assertEquals(8, subsets.size());
+        assertEquals(8, ImmutableSet.copyOf(subsets).size());
+        assertSame(contexts, subsets.get(0));
+        assertSame(ContextSet.empty(), Iterables.getLast(subsets));
+        int lastSize = contexts.size();
+        for (ContextSet subset : subsets) {
+            assertTrue(subset.size() <= lastSize);
+            assertTrue(subset.isSubsetOf(contexts));
+            assertTrue(contexts.containsAll(subset));
+            lastSize = subset.size();
+        }
+        assertFalse(contexts.isSubsetOf(ContextSet.of(ImmutableSet.of(WORLD, DIMENSION))));
+    }
+}
@@ -17,7 +17,11 @@
 package ninja.leaping.permissionsex.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.util.glob.GlobNode;
+import ninja.leaping.permissionsex.util.glob.Globs;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -98,4 +102,138 @@ public class NodeTreeTest {
         assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
         assertEquals(0, nodes.get("random.perm"));
     }
+
+    @Test
+    public void testCaseInsensitive() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("Generate.Rainbow", 1);
+        testPermissions.put("generate.SUNSET", -1);
+
+        NodeTree nodes = NodeTree.of(testPermissions);
+
+        assertEquals(1, nodes.get("generate.rainbow"));
+        assertEquals(1, nodes.get("GENERATE.RAINBOW.double"));
+        assertEquals(-1, nodes.get("generate.sunset"));
+        assertEquals(0, nodes.get("generate"));
+    }
+
+    @Test
+    public void testUnsetBranchesRemoved() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.thunderstorm.explosive", -1);
+
+        NodeTree nodes = NodeTree.of(testPermissions, -1).withValue("generate.thunderstorm.explosive", 0);
+
+        final Map<String, Integer> expected = new HashMap<>();
+        expected.put("generate.rainbow", 1);
+        assertEquals(expected, nodes.asMap());
+        assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
+        assertEquals(1, nodes.get("generate.rainbow"));
+    }
+
+    @Test
+    public void testSegmentBoundaries() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate..empty", -1);
+
+        NodeTree nodes = NodeTree.of(testPermissions);
+
+        assertEquals(1, nodes.get("generate.rainbow."));
+        assertEquals(1, nodes.get(new StringBuilder("generate.Rainbow.double")));
+        assertEquals(0, nodes.get("generate.rainbo"));
+        assertEquals(0, nodes.get("generate.rainbowx"));
+        assertEquals(-1, nodes.get("generate..empty"));
+        assertEquals(0, nodes.get("..."));
+        assertEquals(0, nodes.get(""));
+    }
+
+    @Test
+    public void testEquality() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+
+        NodeTree first = NodeTree.of(testPermissions);
+        NodeTree second = NodeTree.of(ImmutableMap.of("generate.sunset", -1)).withValue("Generate.Rainbow", 1);
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, NodeTree.of(testPermissions, 1));
+        assertNotEquals(first, first.withValue("generate.rainbow", 2));
+    }
+
+    @Test
+    public void testEqualityIgnoresInsertionOrder() throws Exception {
+        final GlobNode weather = Globs.parse("{generate,summon}.{thunderstorm,rain}");
+        final GlobNode generate = Globs.parse("generate.{rainbow,sunset}");
+        NodeTree first = NodeTree.builder()
+                .putIfStronger("generate.rain", 1)
+                .putIfStronger(weather, -2)
+                .putIfStronger(generate, 1)
+                .build();
+        NodeTree second = NodeTree.builder()
+                .putIfStronger(generate, 1)
+                .putIfStronger(weather, -2)
+                .putIfStronger("generate.rain", 1)
+                .build();
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+
+        // Where values of equal magnitude and opposite sign overlap, the order they were set in decides the result
+        NodeTree earlierPositive = NodeTree.builder().putIfStronger("generate.rain", 2).putIfStronger(weather, -2).build();
+        NodeTree earlierNegative = NodeTree.builder().putIfStronger(weather, -2).putIfStronger("generate.rain", 2).build();
+        assertEquals(2, earlierPositive.get("generate.rain"));
+        assertEquals(-2, earlierNegative.get("generate.rain"));
+        assertNotEquals(earlierPositive, earlierNegative);
+    }
+
+    @Test
+    public void testBuilder() {
+        NodeTree.Builder builder = NodeTree.builder()
+                .put("generate.rainbow", 1)
+                .putIfStronger("generate.rainbow", -1)
+                .putIfStronger("generate.sunset", -1)
+                .putIfStronger("Generate.Sunset", 2);
+        NodeTree first = builder.build();
+
+        assertEquals(1, first.get("generate.rainbow"));
+        assertEquals(2, first.get("generate.sunset"));
+
+        builder.put("generate.sunset", 0).setDefaultValue(-1);
+        assertEquals(2, first.get("generate.sunset"));
+        assertEquals(-1, builder.build().get("generate.sunset"));
+        assertEquals(first, first.toBuilder().build());
+    }
+
+    @Test
+    public void testGlobPatterns() throws Exception {
+        final GlobNode generate = Globs.parse("generate.{rainbow,sunset{.red,.blue}}");
+        final GlobNode weather = Globs.parse("{generate,summon}.{thunderstorm,rain}");
+        final NodeTree.Builder patterns = NodeTree.builder()
+                .put("generate", 1)
+                .putIfStronger("generate.sunset", -1)
+                .putIfStronger(generate, 1)
+                .putIfStronger(weather, -2)
+                .putIfStronger(Globs.literal("summon.rain.heavy"), 1);
+        final NodeTree.Builder expanded = NodeTree.builder()
+                .put("generate", 1)
+                .putIfStronger("generate.sunset", -1);
+        generate.forEach(node -> expanded.putIfStronger(node, 1));
+        weather.forEach(node -> expanded.putIfStronger(node, -2));
+        expanded.putIfStronger("summon.rain.heavy", 1);
+
+        final NodeTree patternTree = patterns.build();
+        final NodeTree expandedTree = expanded.build();
+        for (String node : new String[] {"generate", "generate.rainbow", "Generate.Sunset", "generate.sunset.red", "generate.sunset.red.dark",
+                "generate.sunrise", "generate.rain", "summon", "summon.rain", "summon.rain.heavy", "summon.thunderstorm.", "other"}) {
+            assertEquals(node, expandedTree.get(node), patternTree.get(node));
+        }
+        assertEquals(-1, patternTree.get("generate.sunset"));
+        assertEquals(expandedTree.asMap(), patternTree.asMap());
+        assertEquals(patternTree, patternTree.toBuilder().build());
+        assertEquals(3, patternTree.withValue("generate.rain", 3).get("generate.rain"));
+    }
 }
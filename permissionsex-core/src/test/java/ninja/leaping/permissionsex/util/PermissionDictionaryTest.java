@@ -0,0 +1,46 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PermissionDictionaryTest {
+
+    @Test
+    public void testIntern() {
+        String permission = PermissionDictionary.intern("worldedit.wand");
+        assertSame(permission, PermissionDictionary.intern(new StringBuilder("worldedit.").append("wand").toString()));
+    }
+
+    @Test
+    public void testSegmentsCaseInsensitive() {
+        PermissionDictionary.Segment segment = PermissionDictionary.segment("Teleport");
+        assertSame(segment, PermissionDictionary.segment("teleport"));
+        assertEquals("teleport", segment.getName());
+        assertEquals(segment.getId(), PermissionDictionary.findSegmentId("commands.TELEPORT.other", 9, 17));
+        assertNotEquals(segment.getId(), PermissionDictionary.segment("teleported").getId());
+    }
+
+    @Test
+    public void testUnknownSegment() {
+        assertEquals(-1, PermissionDictionary.findSegmentId("never-assigned-segment", 0, 22));
+    }
+}
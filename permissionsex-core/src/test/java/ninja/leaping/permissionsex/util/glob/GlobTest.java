@@ -17,7 +17,6 @@
 package ninja.leaping.permissionsex.util.glob;
 
 import com.google.common.collect.ImmutableList;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import static ninja.leaping.permissionsex.util.glob.Globs.*;
@@ -51,9 +50,36 @@ public class GlobTest {
         parse("aoeu{xy,b");
     }
 
-    @Ignore("Escape parsing is currently broken, but the rest works fine")
+    @Test
+    public void testParsedGlobsShared() throws GlobParseException {
+        assertSame(parse("{a,b}.c"), parse("{a,b}.c"));
+    }
+
+    @Test
+    public void testRepeatedParseFailures() {
+        for (int i = 0; i < 2; ++i) {
+            try {
+                parse("aoeu{xy,c");
+                fail("Invalid glob was parsed");
+            } catch (GlobParseException expected) {
+            }
+        }
+    }
+
     @Test
     public void testEscapes() throws GlobParseException {
         assertEquals(seq("a{b", or("c", "d")), parse("a\\{b{c,d}"));
+        assertEquals(seq("a\\b", or("c,", "d")), parse("a\\b{c\\,,d}"));
+    }
+
+    @Test
+    public void testEmptyAlternativesFail() {
+        for (String invalid : ImmutableList.of("{}", "a{b,}", "{,b}", "a{b}c}", "{a,b}c,d")) {
+            try {
+                parse(invalid);
+                fail("Invalid glob " + invalid + " was parsed");
+            } catch (GlobParseException expected) {
+            }
+        }
     }
 }